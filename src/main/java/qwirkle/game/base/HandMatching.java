@@ -0,0 +1,13 @@
+package qwirkle.game.base;
+
+/** How a {@link QwirkleBoard} matches a hand against the spots next to its pieces, in
+ *  {@link QwirkleBoard#getLegalPlacements(java.util.Collection)}. The answers are the same
+ *  either way; only the speed differs. See {@link QwirkleSettings#withHandMatching}. */
+public enum HandMatching {
+    /** Check each piece in the hand against each spot. The default. */
+    PER_PIECE,
+    /** Group the hand by color, and check all of a color's shapes against a spot at once,
+     *  with one AND of bitmasks. Fewer checks with bigger hands -- though with six pieces,
+     *  building the placements takes longer than finding them either way. */
+    BY_COLOR
+}
@@ -1,6 +1,7 @@
 package qwirkle.game.base;
 
 import java.util.Collection;
+import java.util.Map;
 
 /** The current state of a Qwirkle board. */
 public interface QwirkleBoard extends QwirkleGrid {
@@ -13,6 +14,11 @@ public interface QwirkleBoard extends QwirkleGrid {
     /** What are the legal places to place a certain piece? */
     Collection<QwirklePlacement> getLegalPlacements(QwirklePiece piece);
 
+    /** What are the legal places for each piece in a hand? Quicker than asking
+     *  about the pieces one at a time. Equal pieces share an entry.
+     *  @return every piece in <tt>hand</tt>, mapped to where it can go (possibly nowhere) */
+    Map<QwirklePiece, Collection<QwirklePlacement>> getLegalPlacements(Collection<QwirklePiece> hand);
+
     /** If the current player plans to place <tt>play</tt>,
      *  what are the legal places they can also put <tt>piece</tt>?
      *  @param play Placements that are already planned. Must be a legal move.
@@ -37,14 +43,27 @@ public interface QwirkleBoard extends QwirkleGrid {
      *  Null if there are no moves (size() == 0). */
     QwirkleBoard getUndo();
 
+    /** A 64-bit hash of the pieces on this board and where they are -- the same for any
+     *  two boards with the same pieces in the same places, however they got there. Different
+     *  boards almost certainly have different hashes. Handy for caching results by position. */
+    long getZobristHash();
+
     /** How many turns have happened in this game so far? */
     int getTurnCount();
 
     /** The score of the last play.
-     *  Note: To get the score of a potential move,
-     *  use <tt>board.play(placements).getLastScore()</tt>. */
+     *  Note: To get the score of a potential move, use {@link #score}. */
     int getLastScore();
 
+    /** What would <tt>play</tt> score on this board? The same as
+     *  <tt>play(play).getLastScore()</tt>, but without building a new board.
+     *  @throws IllegalStateException if <tt>play</tt> is not legal */
+    int score(Collection<QwirklePlacement> play);
+
+    /** Check and score <tt>play</tt> in one step.
+     *  @return what <tt>play</tt> would score on this board, or -1 if it is not legal */
+    int scoreIfLegal(Collection<QwirklePlacement> play);
+
     /** The last play that was made. Null if this board is empty.
      *  If the last play was a single piece, this
      *  collection's size() will be 1. */
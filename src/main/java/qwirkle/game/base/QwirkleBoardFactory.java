@@ -0,0 +1,7 @@
+package qwirkle.game.base;
+
+/** Makes the empty board that a game starts with -- see {@link QwirkleSettings#createBoard}. */
+public interface QwirkleBoardFactory {
+    /** A new, empty board for a game played under <tt>settings</tt>. */
+    QwirkleBoard create(QwirkleSettings settings);
+}
@@ -1,10 +1,13 @@
 package qwirkle.game.base;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class QwirkleColor {
     // note: if we initialize this here, it happens after
     private static final Map<String, QwirkleColor> abbrevMap = new HashMap<>();
+    // the next color's ordinal -- also has to be initialized before the colors below
+    private static final AtomicInteger nextOrdinal = new AtomicInteger();
 
     // darker or lighter
     private static final double GRADATION = 0.65;
@@ -53,7 +56,7 @@ public class QwirkleColor {
             = Collections.unmodifiableList(Arrays.asList(
             GREEN, YELLOW, ORANGE, RED, PURPLE));
 
-    private final int color;
+    private final int color, ordinal;
     private final int r, g, b;
     private String name, abbrev;
 
@@ -92,6 +95,7 @@ public class QwirkleColor {
     private QwirkleColor(int r, int g, int b, String name, String abbrev) {
         this.r = r; this.g = g; this.b = b;
         this.color = b + (g << 8) + (r << 16);
+        this.ordinal = nextOrdinal.getAndIncrement();
         this.name = name;
         this.abbrev = abbrev;
         if (abbrev != null) {
@@ -106,6 +110,10 @@ public class QwirkleColor {
 
     public String getAbbrev() { return abbrev; }
 
+    /** A dense number that identifies this color, in the order that colors were created --
+     *  for indexing arrays by color. See also {@link QwirkleSettings#getColorIndex}. */
+    public int getOrdinal() { return ordinal; }
+
     public int getR() { return r; }
     public int getG() { return g; }
     public int getB() { return b; }
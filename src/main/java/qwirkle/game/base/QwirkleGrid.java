@@ -30,6 +30,39 @@ public interface QwirkleGrid {
      *  @param padding empty squares to include around the edge. */
     GridWalker getVerticalWalker(int padding);
 
+    /** Receives runs of adjacent pieces from {@link #forEachRun}. */
+    interface RunVisitor { // note: public by default
+        /** A run of pieces next to each other in a row or column, with empty spots at both ends.
+         *  @param fixed the run's y coordinate if it is horizontal, or x if vertical
+         *  @param start the other coordinate of the first piece in the run
+         *  @param end the other coordinate of the last piece in the run (inclusive)
+         *  @param placements the run's placements, in order, in <tt>placements[0]</tt> through
+         *                    <tt>placements[end - start]</tt>. Only good until this returns -- the
+         *                    array is reused for the next run. */
+        void visit(int fixed, int start, int end, QwirklePlacement[] placements);
+    }
+
+    /** Visit every run of pieces on the grid, in the same order as the walkers -- without
+     *  creating anything for each spot along the way, and skipping the empty ones.
+     *  @param horizontal visit rows (y then x) if true, columns (x then y) if false. */
+    void forEachRun(boolean horizontal, RunVisitor visitor);
+
+    /** Where the run of pieces through (x, y) starts -- as if there were a piece at (x, y),
+     *  so for an empty spot, where a piece played there would start its line.
+     *  @param horizontal along the row (and return an x coordinate) if true, else the column (and a y)
+     *  @return the lowest coordinate from which the spots up to (x, y) are all filled,
+     *  or x (or y) if the spot just before it is empty */
+    int getRunStart(int x, int y, boolean horizontal);
+
+    /** Where the run of pieces through (x, y) ends -- see {@link #getRunStart}.
+     *  @return the highest coordinate up to which the spots after (x, y) are all filled,
+     *  or x (or y) if the spot just after it is empty */
+    int getRunEnd(int x, int y, boolean horizontal);
+
+    /** Are all the spots from <tt>from</tt> to <tt>to</tt> (inclusive) filled? True if <tt>from</tt> &gt; <tt>to</tt>.
+     *  @param horizontal along row y = <tt>fixed</tt> if true, otherwise along column x = <tt>fixed</tt> */
+    boolean isContiguous(boolean horizontal, int fixed, int from, int to);
+
     /** The current left edge of the board. */
     int getXMin();
 
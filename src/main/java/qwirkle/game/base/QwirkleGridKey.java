@@ -0,0 +1,127 @@
+package qwirkle.game.base;
+
+import java.util.Arrays;
+
+/** A compact key for an arrangement of pieces, for caching things by position.
+ *  Grids get equal keys if they have the same pieces in the same arrangement, no
+ *  matter where on the board it is -- and, with {@link #of}, no matter which way it is
+ *  rotated or flipped, since the game doesn't care about any of that.
+ *
+ *  <p>The key is the pieces' locations, moved so the lowest x and y are 0, and their
+ *  pieces' ordinals (see {@link QwirklePiece#getOrdinal}), packed into a sorted array of
+ *  longs. For symmetry, it is the least of the 8 rotations and reflections of the grid.</p>
+ *
+ *  <p>Also remembers how to get from the grid's locations to the key's and back, so
+ *  that locations can be cached in the key's terms -- but that isn't part of its identity.
+ *  Immutable.</p> */
+public final class QwirkleGridKey {
+    // the 8 symmetries of a square: (x, y) -> (xx * x + xy * y, yx * x + yy * y)
+    private static final int[][] TRANSFORMS = {
+            { 1, 0, 0, 1 }, { 0, -1, 1, 0 }, { -1, 0, 0, -1 }, { 0, 1, -1, 0 }, // rotations
+            { -1, 0, 0, 1 }, { 1, 0, 0, -1 }, { 0, 1, 1, 0 }, { 0, -1, -1, 0 } // reflections
+    };
+    private static final int BITS = 21, MASK = (1 << BITS) - 1;
+
+    // x, y and piece ordinal, packed and sorted
+    private final long[] cells;
+    private final int hash;
+    // how we got here from the grid: which transform, and then how far it was moved
+    private final int[] transform;
+    private final int xMin, yMin;
+
+    private QwirkleGridKey(long[] cells, int[] transform, int xMin, int yMin) {
+        this.cells = cells;
+        this.hash = Arrays.hashCode(cells);
+        this.transform = transform;
+        this.xMin = xMin;
+        this.yMin = yMin;
+    }
+
+    /** A key for <tt>grid</tt> that is the same for any rotation, reflection or translation of it. */
+    public static QwirkleGridKey of(QwirkleGrid grid) {
+        QwirkleGridKey result = null;
+        for (int[] transform : TRANSFORMS) {
+            QwirkleGridKey key = build(grid, transform);
+            if (result == null || compare(key.cells, result.cells) < 0)
+                result = key;
+        }
+        return result;
+    }
+
+    /** A key for <tt>grid</tt> that is the same for any translation of it, but not rotations or reflections. */
+    public static QwirkleGridKey translationOf(QwirkleGrid grid) {
+        return build(grid, TRANSFORMS[0]);
+    }
+
+    private static QwirkleGridKey build(QwirkleGrid grid, int[] transform) {
+        long[] cells = new long[grid.size()];
+        int[] xs = new int[cells.length], ys = new int[cells.length];
+        int xMin = Integer.MAX_VALUE, yMin = Integer.MAX_VALUE, i = 0;
+        for (QwirklePlacement placement : grid.getPlacements()) {
+            xs[i] = transform[0] * placement.getX() + transform[1] * placement.getY();
+            ys[i] = transform[2] * placement.getX() + transform[3] * placement.getY();
+            xMin = Math.min(xMin, xs[i]);
+            yMin = Math.min(yMin, ys[i]);
+            ++i;
+        }
+        i = 0;
+        for (QwirklePlacement placement : grid.getPlacements()) {
+            cells[i] = pack(xs[i] - xMin, ys[i] - yMin, placement.getPiece().getOrdinal());
+            ++i;
+        }
+        Arrays.sort(cells);
+        return new QwirkleGridKey(cells, transform, xMin, yMin);
+    }
+
+    private static long pack(int x, int y, int piece) {
+        return ((long) x << (2 * BITS)) | ((long) y << BITS) | piece;
+    }
+
+    /** Compare the sorted cells of two keys, as if they were strings. */
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length && i < b.length; ++i)
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        return a.length - b.length;
+    }
+
+    /** How many pieces are in this arrangement? */
+    public int size() { return cells.length; }
+
+    /** Where <tt>location</tt> on the grid this key came from is, in the key's terms. */
+    public QwirkleLocation toKey(QwirkleLocation location) {
+        int x = location.getX(), y = location.getY();
+        return QwirkleLocation.of(transform[0] * x + transform[1] * y - xMin,
+                transform[2] * x + transform[3] * y - yMin);
+    }
+
+    /** Where <tt>location</tt>, in the key's terms, is on the grid this key came from.
+     *  The inverse of {@link #toKey}. */
+    public QwirkleLocation fromKey(QwirkleLocation location) {
+        int x = location.getX() + xMin, y = location.getY() + yMin;
+        // the transforms are all orthogonal, so the inverse is the transpose
+        return QwirkleLocation.of(transform[0] * x + transform[2] * y,
+                transform[1] * x + transform[3] * y);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QwirkleGridKey that = (QwirkleGridKey) o;
+        return hash == that.hash && Arrays.equals(cells, that.cells);
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("Grid key:");
+        for (long cell : cells)
+            result.append(" ").append((int) (cell >>> (2 * BITS)) & MASK)
+                    .append(",").append((int) (cell >>> BITS) & MASK)
+                    .append(":").append((int) cell & MASK);
+        return result.toString();
+    }
+}
@@ -7,51 +7,34 @@ public class QwirkleKit {
     /** Used for deciding who goes first, based on who has the largest
      *  playable set of pieces. How many of the same piece or color are there in this set of pieces? */
     public static int countMatches(Collection<QwirklePiece> pieces) {
-        // only count unique pieces (drop dupes)
-        Set<QwirklePiece> unique = new HashSet<>(pieces);
-
-        // 1. compile list of all the shapes and colors that are represented
-        Set<QwirkleColor> colors = new HashSet<>();
-        Set<QwirkleShape> shapes = new HashSet<>();
-        for (QwirklePiece piece : unique) {
-            colors.add(piece.getColor());
+        // a game with just the shapes and colors that are represented
+        Set<QwirkleShape> shapes = new LinkedHashSet<>();
+        Set<QwirkleColor> colors = new LinkedHashSet<>();
+        for (QwirklePiece piece : pieces) {
             shapes.add(piece.getShape());
+            colors.add(piece.getColor());
         }
+        return countMatches(pieces, new QwirkleSettings(1, shapes, colors, Collections.<QwirklePlayer>emptyList()));
+    }
 
-        // 2. what is the largest number of the same shape?
+    /** How many of the same piece or color are there in <tt>pieces</tt>, from a game with <tt>settings</tt>?
+     *  Ignores pieces that aren't in the game. */
+    public static int countMatches(Collection<QwirklePiece> pieces, QwirkleSettings settings) {
+        int nShapes = settings.getShapes().size();
+        int[] byShape = new int[nShapes], byColor = new int[settings.getColors().size()];
+        // only count unique pieces (drop dupes)
+        boolean[] seen = new boolean[settings.getKindCount()];
         int max = 0;
-        for (QwirkleShape shape : shapes) {
-            int n = countShapes(unique, shape);
-            if (n > max)
-                max = n;
+        for (QwirklePiece piece : pieces) {
+            int code = settings.getPieceCode(piece);
+            if (code < 0 || seen[code])
+                continue;
+            seen[code] = true;
+            max = Math.max(max, Math.max(++byColor[code / nShapes], ++byShape[code % nShapes]));
         }
-
-        // 3. what is the largest number of the same color?
-        for (QwirkleColor color : colors) {
-            int n = countColors(unique, color);
-            if (n > max)
-                max = n;
-        }
-
         return max;
     }
 
-    private static int countShapes(Collection<QwirklePiece> pieces, QwirkleShape shape) {
-        int result = 0;
-        for (QwirklePiece p : pieces)
-            if (p.getShape() == shape)
-                ++result;
-        return result;
-    }
-
-    private static int countColors(Collection<QwirklePiece> pieces, QwirkleColor color) {
-        int result = 0;
-        for (QwirklePiece p : pieces)
-            if (p.getColor() == color)
-                ++result;
-        return result;
-    }
-
     public static List<QwirkleLocation> placementsToLocations(Collection<QwirklePlacement> placements) {
         List<QwirkleLocation> result = new ArrayList<>();
         if (placements != null)
@@ -1,7 +1,5 @@
 package qwirkle.game.base;
 
-import qwirkle.game.base.impl.QwirkleGridTools;
-
 import java.util.*;
 
 /** A line of pieces, all either the same color or the same
@@ -10,19 +8,39 @@ import java.util.*;
  *  A line may have a size of 1.
  *
  *  A line has two ends. When it has 6 pieces, it is complete
- *  (but use isComplete() instead of size(). */
+ *  (but use isComplete() instead of size().
+ *
+ *  <p>Internally, a line is its extent along one axis plus bitmasks of the
+ *  colors and shapes it contains, so checking whether a piece fits is
+ *  a handful of bit operations rather than a scan of the pieces.</p> */
 public class QwirkleLine implements Collection<QwirklePlacement> {
-    private Set<QwirklePlacement> placements = new HashSet<>();
-    private QwirkleSettings settings;
+    private final QwirkleSettings settings;
+    // sorted along the line's axis, from min to max
+    private final QwirklePlacement[] placements;
+    // if size() > 1: is it horizontal (all the same y) or vertical (all the same x)?
+    private final boolean horizontal;
+    // the extent along the axis -- x if horizontal, y if vertical
+    private final int min, max;
+    // bitmasks: colors by their index in the settings, since there can be any number of them (see
+    // QwirkleColor.createRainbow); shapes by ordinal, since there are few enough for a long, and a
+    // board takes pieces of any shape, not just the game's -- which a dense index couldn't number
+    private final long colors, shapes;
+    // colors with no bit -- not one of the game's, or past the 64th; almost always empty
+    private final QwirkleColor[] otherColors;
+    private static final QwirkleColor[] NO_COLORS = new QwirkleColor[0];
     private List<QwirkleLocation> ends = null;
-    private boolean sameColor, sameShape;
+    private int hash = 0; // lines are immutable, so cache it
 
     /** Construct a new line (with only one piece). */
     public QwirkleLine(QwirklePlacement placement, QwirkleSettings settings) {
         this.settings = settings;
-        placements.add(placement);
-        sameColor = true;
-        sameShape = true;
+        this.placements = new QwirklePlacement[] { placement };
+        this.horizontal = false;
+        this.min = this.max = placement.getY();
+        long bit = colorBit(placement.getColor());
+        this.colors = bit;
+        this.otherColors = bit == 0 ? new QwirkleColor[] { placement.getColor() } : NO_COLORS;
+        this.shapes = shapeBit(placement.getShape());
     }
 
     public QwirkleLine(QwirkleLine parent, QwirklePlacement additional) {
@@ -30,22 +48,72 @@ public class QwirkleLine implements Collection<QwirklePlacement> {
             throw new IllegalStateException("Cannot add " + additional + " to " + parent);
 
         this.settings = parent.settings;
-
-        this.placements.addAll(parent.placements);
-        this.placements.add(additional);
-        if (parent.size() > 1) {
-            sameColor = parent.sameColor;
-            sameShape = parent.sameShape;
+        long bit = colorBit(additional.getColor());
+        this.colors = parent.colors | bit;
+        this.otherColors = bit == 0 ? withColor(parent.otherColors, additional.getColor()) : parent.otherColors;
+        this.shapes = parent.shapes | shapeBit(additional.getShape());
+
+        QwirklePlacement first = parent.placements[0];
+        this.horizontal = (parent.size() > 1) ? parent.horizontal : additional.getY() == first.getY();
+        int parentMin = parent.size() > 1 ? parent.min : along(first),
+                parentMax = parent.size() > 1 ? parent.max : along(first);
+        int c = along(additional);
+        int n = parent.placements.length;
+        this.placements = new QwirklePlacement[n + 1];
+        // the new piece goes on one end or the other
+        if (c < parentMin) {
+            placements[0] = additional;
+            System.arraycopy(parent.placements, 0, placements, 1, n);
+            this.min = c;
+            this.max = parentMax;
         }
         else {
-            QwirklePlacement first = parent.placements.iterator().next();
-            sameColor = (first.getColor() == additional.getColor());
-            sameShape = (first.getShape() == additional.getShape());
-            if (sameColor && sameShape)
-                throw new IllegalStateException("Can't be both the same color and the same shape.");
+            System.arraycopy(parent.placements, 0, placements, 0, n);
+            placements[n] = additional;
+            this.min = parentMin;
+            this.max = c;
         }
     }
 
+    /** The bit for <tt>color</tt>, by its index in the settings -- or 0 if it has none,
+     *  because it isn't one of the game's colors or comes after the 64th. */
+    private long colorBit(QwirkleColor color) {
+        int i = settings.getColorIndex(color);
+        return (i < 0 || i >= Long.SIZE) ? 0 : 1L << i;
+    }
+
+    /** <tt>colors</tt> plus <tt>color</tt>, if it isn't already there. */
+    private static QwirkleColor[] withColor(QwirkleColor[] colors, QwirkleColor color) {
+        if (Arrays.asList(colors).contains(color))
+            return colors;
+        QwirkleColor[] result = Arrays.copyOf(colors, colors.length + 1);
+        result[colors.length] = color;
+        return result;
+    }
+
+    /** How many different colors are in both <tt>a</tt> and <tt>b</tt>, together? */
+    private static int countUnion(QwirkleColor[] a, QwirkleColor[] b) {
+        int n = a.length;
+        for (QwirkleColor color : b)
+            if (!Arrays.asList(a).contains(color))
+                n++;
+        return n;
+    }
+
+    private static long shapeBit(QwirkleShape shape) {
+        return 1L << shape.ordinal();
+    }
+
+    /** The coordinate of <tt>location</tt> along this line's axis. */
+    private int along(HasQwirkleLocation location) {
+        return horizontal ? location.getQwirkleLocation().getX() : location.getQwirkleLocation().getY();
+    }
+
+    /** The coordinate of <tt>location</tt> across this line's axis. */
+    private int across(HasQwirkleLocation location) {
+        return horizontal ? location.getQwirkleLocation().getY() : location.getQwirkleLocation().getX();
+    }
+
 //    /** Does this line contain <tt>placement</tt>? */
 //    public boolean contains(QwirklePlacement placement) {
 //        return placements.contains(placement);
@@ -62,28 +130,47 @@ public class QwirkleLine implements Collection<QwirklePlacement> {
     }
 
     public boolean contains(QwirkleLocation location) {
-        for (QwirklePlacement p : placements)
-            if (p.getLocation().equals(location))
-                return true;
-        return false;
+        return indexOf(location) >= 0;
+    }
+
+    /** The index of <tt>location</tt> in {@link #placements}, or -1 if it isn't in this line. */
+    private int indexOf(QwirkleLocation location) {
+        if (size() == 1)
+            return placements[0].getLocation().equals(location) ? 0 : -1;
+        else if (across(location) != across(placements[0]))
+            return -1;
+        else {
+            int c = along(location);
+            return (c < min || c > max) ? -1 : c - min;
+        }
     }
 
     /** Does this line already contain a certain color? */
     public boolean contains(QwirkleColor color) {
-        for (QwirklePlacement p : placements)
-            if (p.getPiece().getColor() == color)
-                return true;
-        return false;
+        long bit = colorBit(color);
+        return bit != 0 ? (colors & bit) != 0 : Arrays.asList(otherColors).contains(color);
     }
 
     /** Does this line already contain a certain shape? */
     public boolean contains(QwirkleShape shape) {
-        for (QwirklePlacement p : placements)
-            if (p.getPiece().getShape() == shape)
-                return true;
-        return false;
+        return (shapes & shapeBit(shape)) != 0;
+    }
+
+    /** The colors in this line, as a bitmask by their index in the settings
+     *  (see {@link QwirkleSettings#getColorIndex}). Colors with no bit -- because they aren't
+     *  one of the game's, or come after the 64th -- are in {@link #getOtherColors} instead. */
+    public long getColorMask() { return colors; }
+
+    /** The colors in this line that aren't in {@link #getColorMask}. Almost always empty. */
+    public List<QwirkleColor> getOtherColors() {
+        return otherColors.length == 0 ? Collections.<QwirkleColor>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(otherColors));
     }
 
+    /** The shapes in this line, as a bitmask by their ordinals -- not their index in the settings
+     *  (see {@link QwirkleSettings#getShapeIndex}), because the line can hold shapes the game doesn't list. */
+    public long getShapeMask() { return shapes; }
+
     public boolean isComplete() {
         return (isSameColor() && size() == settings.getShapes().size())
                 || (isSameShape() && size() == settings.getColors().size());
@@ -98,30 +185,33 @@ public class QwirkleLine implements Collection<QwirklePlacement> {
     /** Is it legal to add a placement to this line? */
     public boolean isLegal(QwirklePlacement placement) {
         return !isComplete()
-                && isLegalShapeAndColor(placement)
-                && getEnds().contains(placement.getLocation());
+                && isEnd(placement.getLocation())
+                && isLegalShapeAndColor(placement);
     }
 
     private boolean isLegalShapeAndColor(QwirklePlacement placement) {
-        QwirklePlacement first = placements.iterator().next();
+        QwirkleColor color = placement.getColor();
+        long bit = colorBit(color);
+        int nColors = bit != 0 ? Long.bitCount(colors | bit) + otherColors.length
+                : Long.bitCount(colors) + countUnion(otherColors, new QwirkleColor[] { color });
+        // can't play exactly the same piece, but a piece that matches either the shape or color is fine
+        return isUniform(nColors, shapes | shapeBit(placement.getShape()), size() + 1);
+    }
+
+    /** Could <tt>n</tt> pieces with <tt>nColors</tt> colors and these shapes form a line? Either they are all
+     *  the same color with <tt>n</tt> different shapes, or all the same shape with <tt>n</tt> different colors. */
+    private static boolean isUniform(int nColors, long shapes, int n) {
+        return (nColors == 1 && Long.bitCount(shapes) == n)
+                || (Long.bitCount(shapes) == 1 && nColors == n);
+    }
+
+    /** Is <tt>location</tt> just beyond one of this line's ends? */
+    private boolean isEnd(QwirkleLocation location) {
         if (size() == 1)
-            // can't play exactly the same piece
-            return !first.getPiece().equals(placement.getPiece())
-                    // but a piece that matches either the shape or color is fine
-                    && (first.getShape() == placement.getShape()
-                        || first.getColor() == placement.getColor());
+            return placements[0].getLocation().isNeighbor(location);
         else {
-            // same color --> color matches && new shape
-            if (isSameColor())
-                return placement.getColor() == first.getColor()
-                && !contains(placement.getShape());
-            // same shape --> shape matches && new color
-            else if (isSameShape())
-                return placement.getShape() == first.getShape()
-                && !contains(placement.getColor());
-            // oops
-            else
-                throw new IllegalStateException("Neither color nor shape is uniform.");
+            int c = along(location);
+            return across(location) == across(placements[0]) && (c == min - 1 || c == max + 1);
         }
     }
 
@@ -129,110 +219,60 @@ public class QwirkleLine implements Collection<QwirklePlacement> {
      *  where we can add a piece? */
     public List<QwirkleLocation> getEnds() {
         if (ends == null) {
-            QwirklePlacement first = placements.iterator().next();
+            QwirklePlacement first = placements[0];
             // if size is 1, we have 4 neighbors
             if (size() == 1)
                 ends = Collections.unmodifiableList(first.getLocation().getNeighbors());
-            else {
-                List<QwirkleLocation> result = new ArrayList<>();
-                if (isVertical()) {
-                    result.add(new QwirkleLocation(first.getX(), getYMin() - 1));
-                    result.add(new QwirkleLocation(first.getX(), getYMax() + 1));
-                }
-                else {
-                    if (!isHorizontal())
-                        throw new IllegalStateException("Neither horizontal nor vertical: " + this);
-                    result.add(new QwirkleLocation(getXMin() - 1, first.getY()));
-                    result.add(new QwirkleLocation(getXMax() + 1, first.getY()));
-                }
-                ends = Collections.unmodifiableList(result);
-            }
+            else if (horizontal)
+                ends = Collections.unmodifiableList(Arrays.asList(
+                        QwirkleLocation.of(min - 1, first.getY()),
+                        QwirkleLocation.of(max + 1, first.getY())));
+            else
+                ends = Collections.unmodifiableList(Arrays.asList(
+                        QwirkleLocation.of(first.getX(), min - 1),
+                        QwirkleLocation.of(first.getX(), max + 1)));
         }
         return ends;
     }
 
     public String toString() {
-        return "Line: " + placements + "; endpoints: " + getEnds()
-                + (size() > 1 ? (" - same " + (sameColor ? "color" : "shape")) : "");
+        return "Line: " + Arrays.toString(placements) + "; endpoints: " + getEnds()
+                + (size() > 1 ? (" - same " + (isSameColor() ? "color" : "shape")) : "");
     }
 
     /** Size 1 is both vertical and horizontal. */
-    private boolean isVertical() {
-        if (size() == 1)
-            return true;
-        else {
-            Iterator<QwirklePlacement> i = placements.iterator();
-            return i.next().getX() == i.next().getX();
-        }
-    }
+    private boolean isVertical() { return size() == 1 || !horizontal; }
 
     /** Size 1 is both vertical and horizontal. */
-    private boolean isHorizontal() {
-        if (size() == 1)
-            return true;
-        else {
-            Iterator<QwirklePlacement> i = placements.iterator();
-            return i.next().getY() == i.next().getY();
-        }
-    }
+    private boolean isHorizontal() { return size() == 1 || horizontal; }
 
-    private boolean isSameShape() { return sameShape; }
-    private boolean isSameColor() { return sameColor; }
-
-    private int getYMin() { return QwirkleGridTools.getYMin(placements); }
-    private int getYMax() { return QwirkleGridTools.getYMax(placements); }
-    private int getXMin() { return QwirkleGridTools.getXMin(placements); }
-    private int getXMax() { return QwirkleGridTools.getXMax(placements); }
+    private boolean isSameShape() { return Long.bitCount(shapes) == 1; }
+    private boolean isSameColor() { return Long.bitCount(colors) + otherColors.length == 1; }
 
     /** Can these two lines be joined together legally by <tt>placement</tt>? */
     public boolean canJoinWith(QwirkleLine other, QwirklePlacement placement) {
-
         if (!isLegal(placement))
             return false;
-        else {
-            // 1. add the joining placement
-            QwirkleLine scratch = augment(placement);
-
-            // 2. one by one, add all the placements from the other line by growing scratch
-            Map<QwirkleLocation, QwirklePlacement> otherPlaces = new HashMap<>();
-            for (QwirklePlacement otherP : other)
-                otherPlaces.put(otherP.getLocation(), otherP);
-            while (!otherPlaces.isEmpty()) {
-                // 2a. look for a placement that can be added to this line
-                QwirklePlacement candidate;
-                boolean foundOne = false;
-                for (QwirkleLocation end : scratch.getEnds()) {
-                    if (otherPlaces.containsKey(end)) {
-                        candidate = otherPlaces.get(end);
-                        // 2b. if we find one that fits, use it and continue searching
-                        if (scratch.isLegal(candidate)) {
-                            scratch = scratch.augment(candidate);
-                            otherPlaces.remove(candidate.getLocation());
-                            foundOne = true;
-                        }
-                    }
-                }
-                // 2c. if none fit, then this isn't legal
-                if (!foundOne)
-                    return false;
-            }
-            return true;
-        }
+        QwirkleLine scratch = augment(placement);
+        // the other line has to continue straight on from the joined end
+        if (!scratch.isAlignedWith(other))
+            return false;
+        int otherMin = scratch.along(other.placements[0]),
+                otherMax = scratch.along(other.placements[other.size() - 1]);
+        if (otherMin != scratch.max + 1 && otherMax != scratch.min - 1)
+            return false;
+        // all together, the pieces still form a line -- and not too long a line
+        int n = scratch.size() + other.size();
+        int nColors = Long.bitCount(scratch.colors | other.colors) + countUnion(scratch.otherColors, other.otherColors);
+        return isUniform(nColors, scratch.shapes | other.shapes, n)
+                && n <= (nColors == 1 ? settings.getShapes().size() : settings.getColors().size());
     }
 
     public boolean isAlignedWith(QwirkleLine other) {
-        QwirklePlacement first = placements.iterator().next();
+        QwirklePlacement first = placements[0], otherFirst = other.placements[0];
         // do all the X's match or all the Y's match?
-        boolean allX = true, allY = true;
-        for (QwirklePlacement p : placements) {
-            allX &= p.getX() == first.getX();
-            allY &= p.getY() == first.getY();
-        }
-        for (QwirklePlacement p : other.placements) {
-            allX &= p.getX() == first.getX();
-            allY &= p.getY() == first.getY();
-        }
-        return allX || allY;
+        return (isVertical() && other.isVertical() && first.getX() == otherFirst.getX())
+                || (isHorizontal() && other.isHorizontal() && first.getY() == otherFirst.getY());
     }
 
     @Override
@@ -241,29 +281,46 @@ public class QwirkleLine implements Collection<QwirklePlacement> {
         if (o == null || getClass() != o.getClass()) return false;
 
         QwirkleLine that = (QwirkleLine) o;
-        return placements.equals(that.placements);
+        return hashCode() == that.hashCode() && Arrays.equals(placements, that.placements);
     }
 
     @Override
     public int hashCode() {
-        return placements.hashCode();
+        // like a Set, so it doesn't depend on order
+        if (hash == 0) {
+            int result = 0;
+            for (QwirklePlacement p : placements)
+                result += p.hashCode();
+            hash = result;
+        }
+        return hash;
     }
 
     // Collection implementation
     @Override
     public Iterator<QwirklePlacement> iterator() {
-        return Collections.unmodifiableCollection(placements).iterator();
+        return Collections.unmodifiableList(Arrays.asList(placements)).iterator();
     }
 
-    @Override public int size() { return placements.size(); }
-    @Override public boolean isEmpty() { return placements.isEmpty(); }
-    @Override public boolean contains(Object o) { return placements.contains(o); }
-    @Override public Object[] toArray() { return placements.toArray(); }
+    @Override public int size() { return placements.length; }
+    @Override public boolean isEmpty() { return false; }
+    @Override public boolean contains(Object o) {
+        if (!(o instanceof QwirklePlacement))
+            return false;
+        int i = indexOf(((QwirklePlacement) o).getLocation());
+        return i >= 0 && placements[i].equals(o);
+    }
+    @Override public Object[] toArray() { return placements.clone(); }
     @Override public <T> T[] toArray(T[] a) {
         //noinspection SuspiciousToArrayCall
-        return placements.toArray(a);
+        return Arrays.asList(placements).toArray(a);
+    }
+    @Override public boolean containsAll(Collection<?> c) {
+        for (Object o : c)
+            if (!contains(o))
+                return false;
+        return true;
     }
-    @Override public boolean containsAll(Collection<?> c) { return placements.containsAll(c); }
 
     @Override
     public boolean add(QwirklePlacement qwirklePlacement) {
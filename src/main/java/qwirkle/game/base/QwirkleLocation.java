@@ -1,16 +1,33 @@
 package qwirkle.game.base;
 
-import java.lang.ref.SoftReference;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /** An immutable x,y int pair */
 public class QwirkleLocation implements Comparable<QwirkleLocation>, HasQwirkleLocation {
-    private int x, y;
+    // cache the locations near the middle of the board, where games are played
+    private static final int CACHE_RADIUS = 64, CACHE_WIDTH = 2 * CACHE_RADIUS + 1;
+    private static final QwirkleLocation[] cache = new QwirkleLocation[CACHE_WIDTH * CACHE_WIDTH];
+
+    private final int x, y;
 
     public QwirkleLocation(int x, int y) { this.x = x; this.y = y; }
 
+    /** The location (x, y). Near the middle of the board, always the same instance. */
+    public static QwirkleLocation of(int x, int y) {
+        if (x < -CACHE_RADIUS || x > CACHE_RADIUS || y < -CACHE_RADIUS || y > CACHE_RADIUS)
+            return new QwirkleLocation(x, y);
+        int i = (y + CACHE_RADIUS) * CACHE_WIDTH + x + CACHE_RADIUS;
+        QwirkleLocation result = cache[i];
+        // a race just means an extra instance, since locations are immutable
+        if (result == null) {
+            result = new QwirkleLocation(x, y);
+            cache[i] = result;
+        }
+        return result;
+    }
+
     public int getX() { return x; }
     public int getY() { return y; }
 
@@ -38,28 +55,36 @@ public class QwirkleLocation implements Comparable<QwirkleLocation>, HasQwirkleL
         result = 31 * result + y;
         return result;
     }
-    private SoftReference<List<QwirkleLocation>> neighbSoft;
+
     private List<QwirkleLocation> neighbors;
 
+    // placements at this location, by piece ordinal -- see QwirklePlacement.of()
+    private QwirklePlacement[] placements;
+
     @Override public QwirkleLocation getQwirkleLocation() { return this; }
 
     public List<QwirkleLocation> getNeighbors() {
-//        List<QwirkleLocation> result = neighbSoft == null ? null : neighbSoft.get();
-//        if (result == null) {
-        if (neighbors == null) {
-            List<QwirkleLocation> tmp = new ArrayList<>();
-            tmp.add(getAbove());
-            tmp.add(getRight());
-            tmp.add(getBelow());
-            tmp.add(getLeft());
-            neighbors = Collections.unmodifiableList(tmp);
-        }
+        // Arrays.asList() is safe to publish through a race
+        if (neighbors == null)
+            neighbors = Collections.unmodifiableList(Arrays.asList
+                    (getAbove(), getRight(), getBelow(), getLeft()));
         return neighbors;
+    }
 
-//            result = Collections.unmodifiableList(tmp);
-//            neighbSoft = new SoftReference<>(result);
-//        }
-//        return result;
+    /** A placement of <tt>piece</tt> here, reusing the most recent one if it was of the same piece instance. */
+    QwirklePlacement getPlacement(QwirklePiece piece) {
+        QwirklePlacement[] cached = placements;
+        int i = piece.getOrdinal();
+        QwirklePlacement result = (cached != null && i < cached.length) ? cached[i] : null;
+        if (result == null || result.getPiece() != piece) {
+            result = new QwirklePlacement(piece, this);
+            // a race just means an extra instance, since placements are immutable
+            if (cached == null || i >= cached.length)
+                cached = (cached == null) ? new QwirklePlacement[i + 1] : Arrays.copyOf(cached, i + 1);
+            cached[i] = result;
+            placements = cached;
+        }
+        return result;
     }
 
     public boolean isNeighbor(QwirkleLocation loc) {
@@ -76,16 +101,16 @@ public class QwirkleLocation implements Comparable<QwirkleLocation>, HasQwirkleL
             return y == other.y ? x - other.x : y - other.y;
     }
     public QwirkleLocation getLeft() {
-        return new QwirkleLocation(x-1, y);
+        return of(x-1, y);
     }
     public QwirkleLocation getRight() {
-        return new QwirkleLocation(x+1, y);
+        return of(x+1, y);
     }
     public QwirkleLocation getBelow() {
-        return new QwirkleLocation(x, y-1);
+        return of(x, y-1);
     }
 
     public QwirkleLocation getAbove() {
-        return new QwirkleLocation(x, y+1);
+        return of(x, y+1);
     }
 }
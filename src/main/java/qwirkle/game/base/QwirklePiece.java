@@ -1,10 +1,26 @@
 package qwirkle.game.base;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /** A piece you can play in the game Qwirkle.
- *  Immutable -- you can't change the color or shape. */
+ *  Immutable -- you can't change the color or shape.
+ *
+ *  <p>Every kind of piece (color and shape) has a canonical instance -- see {@link #of} -- and
+ *  a dense ordinal, which makes equality and hashing integer operations. Comparison goes by color
+ *  name and then shape, so that the order doesn't depend on which pieces happened to be created first.
+ *  Note that pieces created with a constructor are distinct objects, though, because
+ *  the UI tells physical tiles apart by identity (two red circles in the same hand, for example).</p> */
 public class QwirklePiece implements Comparable<QwirklePiece> {
-    private QwirkleColor color;
-    private QwirkleShape shape;
+    // canonical pieces, by color and then by shape ordinal
+    private static final Map<QwirkleColor, QwirklePiece[]> canonicals = new HashMap<>();
+    private static int nCanonicals = 0;
+
+    private final QwirkleColor color;
+    private final QwirkleShape shape;
+    private final int ordinal;
+    private final QwirklePiece canonical;
+    private final String colorName; // for comparing -- a color without a name makes one up each time
 
     public QwirklePiece(String abbrev) {
         this(QwirkleColor.pick(abbrev.substring(0, 1)),
@@ -14,12 +30,52 @@ public class QwirklePiece implements Comparable<QwirklePiece> {
     public QwirklePiece
             (QwirkleColor color, QwirkleShape shape)
     {
+        this(of(color, shape));
+    }
+
+    /** A new instance of the same kind of piece as <tt>canonical</tt>. */
+    private QwirklePiece(QwirklePiece canonical) {
+        this.color = canonical.color;
+        this.shape = canonical.shape;
+        this.ordinal = canonical.ordinal;
+        this.canonical = canonical;
+        this.colorName = canonical.colorName;
+    }
+
+    /** A canonical piece. */
+    private QwirklePiece(QwirkleColor color, QwirkleShape shape, int ordinal) {
+        this.color = color;
+        this.shape = shape;
+        this.ordinal = ordinal;
+        this.canonical = this;
+        this.colorName = color.toString();
+    }
+
+    /** The canonical piece with this color and shape -- always the same instance. */
+    public static QwirklePiece of(QwirkleColor color, QwirkleShape shape) {
         if (color == null)
             throw new NullPointerException("color is null");
         if (shape == null)
             throw new NullPointerException("shape is null");
-        this.color = color;
-        this.shape = shape;
+        synchronized (canonicals) {
+            QwirklePiece[] byShape = canonicals.get(color);
+            if (byShape == null) {
+                byShape = new QwirklePiece[QwirkleShape.values().length];
+                canonicals.put(color, byShape);
+            }
+            QwirklePiece result = byShape[shape.ordinal()];
+            if (result == null) {
+                result = new QwirklePiece(color, shape, nCanonicals++);
+                byShape[shape.ordinal()] = result;
+            }
+            return result;
+        }
+    }
+
+    /** The canonical piece with this abbreviation, for example "bs" for a blue square. */
+    public static QwirklePiece of(String abbrev) {
+        return of(QwirkleColor.pick(abbrev.substring(0, 1)),
+                QwirkleShape.pick(abbrev.substring(1, 2)));
     }
 
     /** An abbreviation of <tt>pieces</tt>, for example "[ p8 bs bc bd gs gc ]". */
@@ -34,7 +90,14 @@ public class QwirklePiece implements Comparable<QwirklePiece> {
     public QwirkleColor getColor() { return color; }
     public QwirkleShape getShape() { return shape; }
 
-    // used like mad in comparisons, so cache it
+    /** The canonical instance of this kind of piece. */
+    public QwirklePiece getCanonical() { return canonical; }
+
+    /** A dense number that identifies this kind of piece (color and shape),
+     *  in the order that kinds of pieces were first created. */
+    public int getOrdinal() { return ordinal; }
+
+    // pieces are immutable, so cache it
     private transient String toStringCache;
     @Override
     public String toString() {
@@ -52,21 +115,24 @@ public class QwirklePiece implements Comparable<QwirklePiece> {
         if (this == o) return true;
         else if (o == null || getClass() != o.getClass())
             return false;
-        else {
-            QwirklePiece that = (QwirklePiece) o;
-            return (color == that.color && shape == that.shape);
-        }
+        else
+            return ordinal == ((QwirklePiece) o).ordinal;
     }
 
     @Override
     public int hashCode() {
-        int result = color.hashCode();
-        result = 31 * result + shape.hashCode();
-        return result;
+        return ordinal;
     }
 
     @Override
     public int compareTo(QwirklePiece that) {
-        return toString().compareTo(that.toString());
+        if (ordinal == that.ordinal)
+            return 0;
+        int result = colorName.compareTo(that.colorName);
+        if (result == 0)
+            result = Integer.compare(shape.ordinal(), that.shape.ordinal());
+        if (result == 0) // different colors with the same name
+            result = Integer.compare(color.getOrdinal(), that.color.getOrdinal());
+        return result;
     }
 }
@@ -1,8 +1,10 @@
 package qwirkle.game.base;
 
+/** A piece at a location. Immutable. */
 public class QwirklePlacement implements HasQwirkleLocation, Comparable<QwirklePlacement> {
-    private QwirkleLocation location;
-    private QwirklePiece piece;
+    private final QwirkleLocation location;
+    private final QwirklePiece piece;
+    private final int hash;
 
     public QwirklePlacement(String abbrev, int x, int y) {
         this(new QwirklePiece(abbrev), x, y);
@@ -17,10 +19,36 @@ public class QwirklePlacement implements HasQwirkleLocation, Comparable<QwirkleP
             throw new NullPointerException("piece is null");
         this.location = location;
         this.piece = piece;
+        this.hash = hash(location, piece);
     }
 
     public QwirklePlacement(QwirklePiece piece, int x, int y) {
-        this(piece, new QwirkleLocation(x, y));
+        this(piece, QwirkleLocation.of(x, y));
+    }
+
+    /** Mix the location and piece thoroughly. A set's hash code is the sum of its elements',
+     *  so a linear combination would give every arrangement of the same pieces in the same
+     *  spots the same hash -- and move generation keeps sets of lots of those. */
+    private static int hash(QwirkleLocation location, QwirklePiece piece) {
+        int h = location.hashCode() * 0x9E3779B1 + piece.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /** A placement of <tt>piece</tt> at <tt>location</tt>. Near the middle of the board,
+     *  reuses a cached instance if there is one for the same piece instance. */
+    public static QwirklePlacement of(QwirklePiece piece, QwirkleLocation location) {
+        if (piece == null)
+            throw new NullPointerException("piece is null");
+        return QwirkleLocation.of(location.getX(), location.getY()).getPlacement(piece);
+    }
+
+    public static QwirklePlacement of(QwirklePiece piece, int x, int y) {
+        if (piece == null)
+            throw new NullPointerException("piece is null");
+        return QwirkleLocation.of(x, y).getPlacement(piece);
     }
 
     public QwirklePiece getPiece() { return piece; }
@@ -54,13 +82,11 @@ public class QwirklePlacement implements HasQwirkleLocation, Comparable<QwirkleP
         if (o == null || getClass() != o.getClass()) return false;
 
         QwirklePlacement that = (QwirklePlacement) o;
-        return location.equals(that.location) && piece.equals(that.piece);
+        return hash == that.hash && location.equals(that.location) && piece.equals(that.piece);
     }
 
     @Override
     public int hashCode() {
-        int result = location.hashCode();
-        result = 37 * result + piece.hashCode();
-        return result;
+        return hash;
     }
 }
@@ -1,5 +1,6 @@
 package qwirkle.game.base;
 
+import qwirkle.game.base.impl.QwirkleBoardImpl;
 import qwirkle.game.control.players.MaxAI;
 
 import java.util.*;
@@ -17,6 +18,11 @@ public class QwirkleSettings {
     private final List<QwirkleShape> shapes;
     private final List<QwirkleColor> colors;
     private final List<QwirklePlayer> players;
+    // positions in colors and shapes, by color and shape ordinal; -1 if not in this game
+    private final int[] colorIndexes, shapeIndexes;
+    private final UndoRetention undoRetention;
+    private final QwirkleBoardFactory boardFactory;
+    private final HandMatching handMatching;
 
     public QwirkleSettings
             (int nDecks, String shapes, String colors, Collection<QwirklePlayer> players)
@@ -28,10 +34,49 @@ public class QwirkleSettings {
             (int nDecks, Collection<QwirkleShape> shapes,
              Collection<QwirkleColor> colors, Collection<QwirklePlayer> players)
     {
+        this(nDecks, Collections.unmodifiableList(new ArrayList<>(shapes)),
+                Collections.unmodifiableList(new ArrayList<>(colors)),
+                Collections.unmodifiableList(new ArrayList<>(players)),
+                UndoRetention.ALL, QwirkleBoardImpl.HASHED, HandMatching.PER_PIECE);
+    }
+
+    private QwirkleSettings
+            (int nDecks, List<QwirkleShape> shapes, List<QwirkleColor> colors,
+             List<QwirklePlayer> players, UndoRetention undoRetention, QwirkleBoardFactory boardFactory,
+             HandMatching handMatching)
+    {
+        if (undoRetention == null)
+            throw new NullPointerException("Null undo retention.");
+        if (boardFactory == null)
+            throw new NullPointerException("Null board factory.");
+        if (handMatching == null)
+            throw new NullPointerException("Null hand matching.");
         this.nDecks = nDecks;
-        this.shapes = Collections.unmodifiableList(new ArrayList<>(shapes));
-        this.colors = Collections.unmodifiableList(new ArrayList<>(colors));
-        this.players = Collections.unmodifiableList(new ArrayList<>(players));
+        this.shapes = shapes;
+        this.colors = colors;
+        this.players = players;
+        this.undoRetention = undoRetention;
+        this.boardFactory = boardFactory;
+        this.handMatching = handMatching;
+        this.colorIndexes = indexes(colors);
+        this.shapeIndexes = indexes(shapes);
+    }
+
+    /** Where each color or shape is in <tt>list</tt> (the first place, if it is there twice), by ordinal. */
+    private static int[] indexes(List<?> list) {
+        int n = 0;
+        for (Object x : list)
+            n = Math.max(n, ordinal(x) + 1);
+        int[] result = new int[n];
+        Arrays.fill(result, -1);
+        for (int i = list.size() - 1; i >= 0; --i)
+            result[ordinal(list.get(i))] = i;
+        return result;
+    }
+
+    private static int ordinal(Object colorOrShape) {
+        return (colorOrShape instanceof QwirkleColor)
+                ? ((QwirkleColor) colorOrShape).getOrdinal() : ((QwirkleShape) colorOrShape).ordinal();
     }
 
     public QwirkleSettings(int deckCount) {
@@ -70,9 +115,66 @@ public class QwirkleSettings {
     /** What colors should be used in this game? */
     public List<QwirkleColor> getColors() { return colors; }
 
+    /** The position of <tt>color</tt> in {@link #getColors()}, or -1 if it isn't used in this game. */
+    public int getColorIndex(QwirkleColor color) {
+        int ordinal = color.getOrdinal();
+        return ordinal < colorIndexes.length ? colorIndexes[ordinal] : -1;
+    }
+
+    /** The position of <tt>shape</tt> in {@link #getShapes()}, or -1 if it isn't used in this game. */
+    public int getShapeIndex(QwirkleShape shape) {
+        int ordinal = shape.ordinal();
+        return ordinal < shapeIndexes.length ? shapeIndexes[ordinal] : -1;
+    }
+
+    /** A dense number for the kind of piece (color and shape) that <tt>piece</tt> is, in this game:
+     *  its color's index times the number of shapes, plus its shape's index. So counts, masks and so on
+     *  by kind of piece can be arrays of {@link #getKindCount()}. -1 if <tt>piece</tt> isn't in this game.
+     *  Divide by the number of shapes for the color's index; the remainder is the shape's index. */
+    public int getPieceCode(QwirklePiece piece) {
+        int color = getColorIndex(piece.getColor()), shape = getShapeIndex(piece.getShape());
+        return (color < 0 || shape < 0) ? -1 : color * shapes.size() + shape;
+    }
+
+    /** The canonical piece with <tt>code</tt> -- the inverse of {@link #getPieceCode}. */
+    public QwirklePiece getPiece(int code) {
+        return QwirklePiece.of(colors.get(code / shapes.size()), shapes.get(code % shapes.size()));
+    }
+
+    /** How many kinds of pieces (colors times shapes) there are in this game. */
+    public int getKindCount() { return colors.size() * shapes.size(); }
+
     /** Who is playing? */
     public List<QwirklePlayer> getPlayers() { return players; }
 
+    /** How much history do boards keep, for undo? Default {@link UndoRetention#ALL}. */
+    public UndoRetention getUndoRetention() { return undoRetention; }
+
+    /** The same settings, except that boards keep <tt>undoRetention</tt> worth of history. */
+    public QwirkleSettings withUndoRetention(UndoRetention undoRetention) {
+        return new QwirkleSettings(nDecks, shapes, colors, players, undoRetention, boardFactory, handMatching);
+    }
+
+    /** What makes boards for these settings? Default {@link QwirkleBoardImpl#HASHED}. */
+    public QwirkleBoardFactory getBoardFactory() { return boardFactory; }
+
+    /** The same settings, except that boards are made by <tt>boardFactory</tt> -- for example
+     *  {@link QwirkleBoardImpl#DENSE}. */
+    public QwirkleSettings withBoardFactory(QwirkleBoardFactory boardFactory) {
+        return new QwirkleSettings(nDecks, shapes, colors, players, undoRetention, boardFactory, handMatching);
+    }
+
+    /** How do boards match hands against the spots next to their pieces? Default {@link HandMatching#PER_PIECE}. */
+    public HandMatching getHandMatching() { return handMatching; }
+
+    /** The same settings, except that boards match hands with <tt>handMatching</tt>. */
+    public QwirkleSettings withHandMatching(HandMatching handMatching) {
+        return new QwirkleSettings(nDecks, shapes, colors, players, undoRetention, boardFactory, handMatching);
+    }
+
+    /** A new, empty board to start a game with these settings. */
+    public QwirkleBoard createBoard() { return boardFactory.create(this); }
+
     /** How many tiles should players hold at a time? Average of the number of colors & shapes, rounded up.
      *  For example, if we're playing with 7 colors and 4 shapes, hand size is 6. (7 + 4) / 2 = 5.5, round up to 6. */
     public int getHandSize() {
@@ -6,6 +6,7 @@ import qwirkle.util.Stopwatch;
 public abstract class TimeLimitAI implements QwirkleAI {
     private Stopwatch lastMoveWatch;
     private long maxMillis = -1;
+    private boolean parallel = false;
 
     /** Get a stopwatch that recorded the phases of the most recent move. */
     public Stopwatch getLastMoveWatch() { return lastMoveWatch; }
@@ -20,4 +21,10 @@ public abstract class TimeLimitAI implements QwirkleAI {
     public long getMaxMillis() { return maxMillis; }
 
     public void setMaxMillis(long maxMillis) { this.maxMillis = maxMillis; }
+
+    /** Should this player use all the cores to think about its turn, rather than just the
+     *  thread that asks it to play? Worth it with lots of cores and few games at once. Default false. */
+    public boolean isParallel() { return parallel; }
+
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
 }
@@ -0,0 +1,45 @@
+package qwirkle.game.base;
+
+/** How much of its history a {@link QwirkleBoard} keeps, for {@link QwirkleBoard#getUndo}.
+ *  Boards don't hold on to the boards before them -- just the plays that made them, so that
+ *  an earlier board can be rebuilt by taking plays back off. This decides how many of those
+ *  plays to remember. Either way, an earlier board that is still in use somewhere else comes
+ *  back as itself. Immutable.
+ *
+ *  <p>A game that runs for a long time, or a history of many games, should keep less.</p> */
+public final class UndoRetention {
+    /** Remember every play, all the way back to the empty board. The default. */
+    public static final UndoRetention ALL = new UndoRetention(Integer.MAX_VALUE);
+
+    /** Remember no plays. {@link QwirkleBoard#getUndo} returns the board before only while
+     *  something else is still using it, and null after that. */
+    public static final UndoRetention WEAK = new UndoRetention(0);
+
+    private final int depth;
+
+    private UndoRetention(int depth) { this.depth = depth; }
+
+    /** Remember the last <tt>n</tt> plays -- so it's always possible to undo at least
+     *  <tt>n</tt> times. Each play costs a little more than with {@link #ALL}, to forget old ones. */
+    public static UndoRetention last(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Can't remember " + n + " plays.");
+        return n == 0 ? WEAK : new UndoRetention(n);
+    }
+
+    /** How many plays back are remembered. {@link Integer#MAX_VALUE} for {@link #ALL}. */
+    public int getDepth() { return depth; }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof UndoRetention && depth == ((UndoRetention) o).depth);
+    }
+
+    @Override
+    public int hashCode() { return depth; }
+
+    @Override
+    public String toString() {
+        return this == ALL ? "keep all" : (depth == 0 ? "weak" : "keep last " + depth);
+    }
+}
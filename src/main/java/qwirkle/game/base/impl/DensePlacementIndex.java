@@ -0,0 +1,151 @@
+package qwirkle.game.base.impl;
+
+import qwirkle.game.base.QwirklePlacement;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** A flat array covering the grid's bounds, plus some room to spare, holding the index of
+ *  the placement in each spot -- so a lookup is a subtraction, a bounds check and an array read.
+ *  A game's pieces never spread out far, so the array stays small.
+ *
+ *  <p>Copy on write, sort of: the first index extended from this one takes over its array and
+ *  writes the new placements into it, since they only go in spots that are empty here. This one
+ *  ignores them, because their indexes are past the end of its grid. Anything else extended from
+ *  this one -- or anything that doesn't fit in the array -- gets a new array. So a game, which
+ *  adds one play after another, shares a single array, and a search that tries lots of plays on
+ *  the same board pays for a copy per play, like {@link HashedPlacementIndex}.</p> */
+final class DensePlacementIndex extends PlacementIndex {
+    // room to leave on every side, when making a new array
+    private static final int MARGIN = 8;
+
+    // 1 + the index of the placement in each spot, row by row (0 means empty)
+    private final short[] cells;
+    // the location of cells[0], and the size of the array
+    private final int xOrigin, yOrigin, width, height;
+    // how many placements this index's grid has -- any higher index is somebody else's
+    private final int size;
+    // has something extended from this one taken over the array?
+    private final AtomicBoolean taken = new AtomicBoolean(false);
+
+    /** Can we index <tt>n</tt> placements at all? Otherwise, use a {@link HashedPlacementIndex}. */
+    static boolean fits(int n) {
+        return n < Short.MAX_VALUE;
+    }
+
+    /** Index <tt>placements</tt> in a new array. */
+    DensePlacementIndex(List<QwirklePlacement> placements) {
+        int xMin = QwirkleGridTools.getXMin(placements), xMax = QwirkleGridTools.getXMax(placements),
+                yMin = QwirkleGridTools.getYMin(placements), yMax = QwirkleGridTools.getYMax(placements);
+        xOrigin = xMin - MARGIN;
+        yOrigin = yMin - MARGIN;
+        width = xMax - xMin + 1 + 2 * MARGIN;
+        height = yMax - yMin + 1 + 2 * MARGIN;
+        cells = new short[width * height];
+        size = placements.size();
+        for (int i = 0; i < size; ++i) { // if there's already a piece here, the later one wins
+            QwirklePlacement placement = placements.get(i);
+            cells[cell(placement.getX(), placement.getY())] = (short) (i + 1);
+        }
+    }
+
+    /** Share <tt>parent</tt>'s array, which has <tt>size</tt> placements in it. */
+    private DensePlacementIndex(DensePlacementIndex parent, int size) {
+        cells = parent.cells;
+        xOrigin = parent.xOrigin;
+        yOrigin = parent.yOrigin;
+        width = parent.width;
+        height = parent.height;
+        this.size = size;
+    }
+
+    @Override
+    PlacementIndex extend(List<QwirklePlacement> placements, int from) {
+        if (!fits(placements.size()))
+            return new HashedPlacementIndex(placements);
+        if (from == size && taken.compareAndSet(false, true)) {
+            if (canAdd(placements, from)) {
+                for (int i = from; i < placements.size(); ++i) {
+                    QwirklePlacement placement = placements.get(i);
+                    cells[cell(placement.getX(), placement.getY())] = (short) (i + 1);
+                }
+                return new DensePlacementIndex(this, placements.size());
+            }
+            taken.set(false); // didn't write anything, so somebody else can still have it
+        }
+        return new DensePlacementIndex(placements);
+    }
+
+    /** Do the placements from <tt>from</tt> on all go in empty spots inside the array? */
+    private boolean canAdd(List<QwirklePlacement> placements, int from) {
+        for (int i = from; i < placements.size(); ++i) {
+            QwirklePlacement placement = placements.get(i);
+            int x = placement.getX() - xOrigin, y = placement.getY() - yOrigin;
+            if (x < 0 || y < 0 || x >= width || y >= height || cells[y * width + x] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    // The run queries walk a row or a column of the array directly. In terms of the array: a row
+    // or column is <tt>length</tt> spots, starting at <tt>base</tt> and <tt>stride</tt> apart.
+
+    @Override
+    int getRunStart(int x, int y, boolean horizontal) {
+        int across = horizontal ? y - yOrigin : x - xOrigin, i = horizontal ? x - xOrigin : y - yOrigin;
+        int length = horizontal ? width : height, origin = horizontal ? xOrigin : yOrigin;
+        if (across < 0 || across >= (horizontal ? height : width) || i > length)
+            return i + origin; // the spot before is outside the array, so it's empty
+        int base = horizontal ? across * width : across, stride = horizontal ? 1 : width;
+        while (i > 0 && isFilled(base + (i - 1) * stride))
+            --i;
+        return i + origin;
+    }
+
+    @Override
+    int getRunEnd(int x, int y, boolean horizontal) {
+        int across = horizontal ? y - yOrigin : x - xOrigin, i = horizontal ? x - xOrigin : y - yOrigin;
+        int length = horizontal ? width : height, origin = horizontal ? xOrigin : yOrigin;
+        if (across < 0 || across >= (horizontal ? height : width) || i < -1)
+            return i + origin; // the spot after is outside the array, so it's empty
+        int base = horizontal ? across * width : across, stride = horizontal ? 1 : width;
+        while (i + 1 < length && isFilled(base + (i + 1) * stride))
+            ++i;
+        return i + origin;
+    }
+
+    @Override
+    boolean isContiguous(boolean horizontal, int fixed, int from, int to) {
+        if (from > to)
+            return true;
+        int across = horizontal ? fixed - yOrigin : fixed - xOrigin, origin = horizontal ? xOrigin : yOrigin;
+        if (across < 0 || across >= (horizontal ? height : width)
+                || from - origin < 0 || to - origin >= (horizontal ? width : height))
+            return false; // some of it is outside the array, and empty
+        int base = horizontal ? across * width : across, stride = horizontal ? 1 : width;
+        for (int i = from - origin; i <= to - origin; ++i)
+            if (!isFilled(base + i * stride))
+                return false;
+        return true;
+    }
+
+    /** Is there a piece -- one of ours -- in <tt>cells[cell]</tt>? */
+    private boolean isFilled(int cell) {
+        int i = cells[cell] - 1;
+        return i >= 0 && i < size;
+    }
+
+    private int cell(int x, int y) {
+        return (y - yOrigin) * width + (x - xOrigin);
+    }
+
+    @Override
+    int find(int x, int y) {
+        x -= xOrigin;
+        y -= yOrigin;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return -1;
+        int i = cells[y * width + x] - 1;
+        return i < size ? i : -1;
+    }
+}
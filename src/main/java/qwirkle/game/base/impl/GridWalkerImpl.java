@@ -43,18 +43,22 @@ public class GridWalkerImpl implements QwirkleGrid.GridWalker {
 
         @Override
         public QwirkleGrid.LineWalker next() {
-            return new Griderator.LineWalkerImpl();
+            return new Griderator.LineWalkerImpl(++cur);
         }
 
         @Override public void remove() { throw new UnsupportedOperationException(); }
 
         private class LineWalkerImpl implements QwirkleGrid.LineWalker {
+            private final int line; // the y coord if horizontal / x coord if vertical
+
+            private LineWalkerImpl(int line) { this.line = line; }
+
             @Override
             public Iterator<QwirkleLocation> iterator() {
                 if (horizontal)
-                    return new Griderator.Linerator(xmin, xmax, ++cur);
+                    return new Griderator.Linerator(xmin, xmax, line);
                 else
-                    return new Griderator.Linerator(ymin, ymax, ++cur);
+                    return new Griderator.Linerator(ymin, ymax, line);
             }
         }
 
@@ -77,9 +81,9 @@ public class GridWalkerImpl implements QwirkleGrid.GridWalker {
             @Override
             public QwirkleLocation next() {
                 if (horizontal)
-                    return new QwirkleLocation(++location, line);
+                    return QwirkleLocation.of(++location, line);
                 else
-                    return new QwirkleLocation(line, ++location);
+                    return QwirkleLocation.of(line, ++location);
             }
 
             @Override public void remove() { throw new UnsupportedOperationException(); }
@@ -0,0 +1,79 @@
+package qwirkle.game.base.impl;
+
+import qwirkle.game.base.QwirklePlacement;
+
+import java.util.List;
+
+/** An open-addressing hash table of primitives, keyed by packed location, whose values are
+ *  indexes into a list of placements. Works for any size or shape of grid. Extending it
+ *  copies the table rather than rebuilding it. */
+final class HashedPlacementIndex extends PlacementIndex {
+    private static final int MIN_CAPACITY = 16;
+
+    // packed locations, and 1 + the index of the placement there (0 means empty)
+    private final long[] keys;
+    private final int[] slots;
+    private final int shift; // 64 - log2(capacity)
+
+    HashedPlacementIndex(List<QwirklePlacement> placements) {
+        int capacity = MIN_CAPACITY;
+        while (tooFull(placements.size(), capacity))
+            capacity *= 2;
+        keys = new long[capacity];
+        slots = new int[capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < placements.size(); ++i)
+            add(placements, i);
+    }
+
+    /** Copy <tt>parent</tt>'s table and add the placements from <tt>from</tt> on. */
+    private HashedPlacementIndex(HashedPlacementIndex parent, List<QwirklePlacement> placements, int from) {
+        keys = parent.keys.clone();
+        slots = parent.slots.clone();
+        shift = parent.shift;
+        for (int i = from; i < placements.size(); ++i)
+            add(placements, i);
+    }
+
+    private static boolean tooFull(int size, int capacity) {
+        return size * 2 > capacity;
+    }
+
+    @Override
+    PlacementIndex extend(List<QwirklePlacement> placements, int from) {
+        if (tooFull(placements.size(), keys.length))
+            return new HashedPlacementIndex(placements);
+        else
+            return new HashedPlacementIndex(this, placements, from);
+    }
+
+    /** Add the <tt>i</tt>th placement to the table. */
+    private void add(List<QwirklePlacement> placements, int i) {
+        QwirklePlacement placement = placements.get(i);
+        long key = PackedQwirkleGrid.pack(placement.getX(), placement.getY());
+        int mask = keys.length - 1;
+        int slot = hash(key);
+        while (slots[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        slots[slot] = i + 1; // if there's already a piece here, the later one wins
+    }
+
+    /** Fibonacci hashing -- spreads neighboring locations across the table. */
+    private int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    @Override
+    int find(int x, int y) {
+        long key = PackedQwirkleGrid.pack(x, y);
+        int mask = keys.length - 1;
+        int slot = hash(key);
+        while (slots[slot] != 0) {
+            if (keys[slot] == key)
+                return slots[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,183 @@
+package qwirkle.game.base.impl;
+
+import qwirkle.game.base.*;
+
+import java.util.*;
+
+/** A grid of Qwirkle pieces that doesn't box its keys. Locations are looked up in an index of
+ *  primitives whose values are indexes into the list of placements -- so probing the grid
+ *  (especially by {@link #getPlacement(int, int)}) doesn't allocate anything.
+ *
+ *  <p>The index is either a hash table of packed locations, which suits any grid, or a flat
+ *  array over the grid's area, which is quicker for grids of a sensible size, like a game's.</p>
+ *
+ *  <p>A grid derived from a parent grid extends the parent's index rather than rebuilding it.</p> */
+public class PackedQwirkleGrid implements QwirkleGrid {
+    private final List<QwirklePlacement> placements;
+    private final List<QwirklePlacement> placementsView;
+    private final PlacementIndex index;
+    private final int xMin, xMax, yMin, yMax;
+
+    public PackedQwirkleGrid(Collection<QwirklePlacement> placements) {
+        this(placements, false);
+    }
+
+    /** @param dense index the placements with a flat array rather than a hash table */
+    public PackedQwirkleGrid(Collection<QwirklePlacement> placements, boolean dense) {
+        this.placements = new ArrayList<>(placements);
+        this.placementsView = Collections.unmodifiableList(this.placements);
+        this.index = (dense && DensePlacementIndex.fits(this.placements.size()))
+                ? new DensePlacementIndex(this.placements)
+                : new HashedPlacementIndex(this.placements);
+        xMin = QwirkleGridTools.getXMin(this.placements);
+        xMax = QwirkleGridTools.getXMax(this.placements);
+        yMin = QwirkleGridTools.getYMin(this.placements);
+        yMax = QwirkleGridTools.getYMax(this.placements);
+    }
+
+    /** Create an empty grid. */
+    public PackedQwirkleGrid() {
+        this(new ArrayList<QwirklePlacement>());
+    }
+
+    /** Create a grid with everything in <tt>parent</tt>, plus <tt>added</tt>. */
+    protected PackedQwirkleGrid(PackedQwirkleGrid parent, Collection<QwirklePlacement> added) {
+        this.placements = new ArrayList<>(parent.size() + added.size());
+        this.placements.addAll(parent.placements);
+        this.placements.addAll(added);
+        this.placementsView = Collections.unmodifiableList(this.placements);
+        this.index = parent.index.extend(this.placements, parent.size());
+        if (parent.size() == 0) {
+            xMin = QwirkleGridTools.getXMin(this.placements);
+            xMax = QwirkleGridTools.getXMax(this.placements);
+            yMin = QwirkleGridTools.getYMin(this.placements);
+            yMax = QwirkleGridTools.getYMax(this.placements);
+        }
+        else {
+            int x0 = parent.xMin, x1 = parent.xMax, y0 = parent.yMin, y1 = parent.yMax;
+            for (QwirklePlacement placement : added) {
+                x0 = Math.min(x0, placement.getX()); x1 = Math.max(x1, placement.getX());
+                y0 = Math.min(y0, placement.getY()); y1 = Math.max(y1, placement.getY());
+            }
+            xMin = x0; xMax = x1; yMin = y0; yMax = y1;
+        }
+    }
+
+    /** Pack a location into a single long. */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /** Are placements indexed by a flat array? See {@link #PackedQwirkleGrid(Collection, boolean)}. */
+    public boolean isDense() {
+        return index instanceof DensePlacementIndex;
+    }
+
+    /** The index of the placement at (x, y), or -1 if there is none. */
+    private int find(int x, int y) {
+        return index.find(x, y);
+    }
+
+    @Override
+    public int size() {
+        return placements.size();
+    }
+
+    public boolean hasPieceAt(QwirkleLocation location) {
+        return find(location.getX(), location.getY()) >= 0;
+    }
+
+    public boolean hasPieceAt(int x, int y) {
+        return find(x, y) >= 0;
+    }
+
+    @Override
+    public QwirklePiece get(QwirkleLocation location) {
+        QwirklePlacement p = getPlacement(location);
+        return (p == null ? null : p.getPiece());
+    }
+
+    @Override
+    public QwirklePlacement getPlacement(QwirkleLocation location) {
+        return getPlacement(location.getX(), location.getY());
+    }
+
+    @Override
+    public QwirklePlacement getPlacement(int x, int y) {
+        int i = find(x, y);
+        return i < 0 ? null : placements.get(i);
+    }
+
+    @Override
+    public List<QwirklePlacement> getPlacements() {
+        return placementsView;
+    }
+
+    @Override
+    public GridWalker getHorizontalWalker(int padding) {
+        return new GridWalkerImpl(this, padding, true);
+    }
+
+    @Override
+    public GridWalker getVerticalWalker(int padding) {
+        return new GridWalkerImpl(this, padding, false);
+    }
+
+    @Override
+    public void forEachRun(boolean horizontal, RunVisitor visitor) {
+        // Rather than scanning the whole area, find the pieces that start runs and sort them
+        // into walker order -- by the fixed coordinate, then the other one, biased to sort unsigned.
+        long[] starts = new long[placements.size()];
+        int n = 0;
+        for (QwirklePlacement placement : placements) {
+            int x = placement.getX(), y = placement.getY();
+            if (horizontal ? find(x - 1, y) < 0 : find(x, y - 1) < 0)
+                starts[n++] = ((long) (horizontal ? y : x) << 32)
+                        | (((horizontal ? x : y) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(starts, 0, n);
+        QwirklePlacement[] run = new QwirklePlacement[placements.size()];
+        for (int i = 0; i < n; ++i) {
+            if (i > 0 && starts[i] == starts[i - 1])
+                continue; // more than one placement in the same spot
+            int fixed = (int) (starts[i] >> 32), start = ((int) starts[i]) ^ Integer.MIN_VALUE;
+            int length = 0;
+            for (QwirklePlacement next = getPlacement(horizontal ? start : fixed, horizontal ? fixed : start);
+                 next != null;
+                 next = horizontal ? getPlacement(start + length, fixed) : getPlacement(fixed, start + length))
+                run[length++] = next;
+            visitor.visit(fixed, start, start + length - 1, run);
+        }
+    }
+
+    @Override
+    public int getRunStart(int x, int y, boolean horizontal) {
+        return index.getRunStart(x, y, horizontal);
+    }
+
+    @Override
+    public int getRunEnd(int x, int y, boolean horizontal) {
+        return index.getRunEnd(x, y, horizontal);
+    }
+
+    @Override
+    public boolean isContiguous(boolean horizontal, int fixed, int from, int to) {
+        return index.isContiguous(horizontal, fixed, from, to);
+    }
+
+    // an empty grid has bounds of 0, like QwirkleGridTools
+    @Override public int getXMin() { return xMin; }
+    @Override public int getXMax() { return xMax; }
+    @Override public int getYMin() { return yMin; }
+    @Override public int getYMax() { return yMax; }
+    @Override public int getWidth() { return getXMax() - getXMin() + 1; }
+    @Override public int getHeight() { return getYMax() - getYMin() + 1; }
+
+    @Override
+    public String toString() { return toString(""); }
+
+    @Override
+    public String toString(String linePrefix) {
+        return QwirkleGridTools.toString(this, linePrefix);
+    }
+}
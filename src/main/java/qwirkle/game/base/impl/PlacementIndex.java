@@ -0,0 +1,49 @@
+package qwirkle.game.base.impl;
+
+import qwirkle.game.base.QwirklePlacement;
+
+import java.util.List;
+
+/** Finds a grid's placements by location, as indexes into its list of placements -- see
+ *  {@link PackedQwirkleGrid}. As far as the grid using it can tell, immutable. */
+abstract class PlacementIndex {
+    /** The index of the placement at (x, y), or -1 if there is none. If there is more than
+     *  one placement at (x, y), the later one. */
+    abstract int find(int x, int y);
+
+    /** An index of <tt>placements</tt>, given that this is an index of the first
+     *  <tt>from</tt> of them. Leaves this one as it is, as far as its grid can tell. */
+    abstract PlacementIndex extend(List<QwirklePlacement> placements, int from);
+
+    /** See {@link qwirkle.game.base.QwirkleGrid#getRunStart}. */
+    int getRunStart(int x, int y, boolean horizontal) {
+        if (horizontal) {
+            while (find(x - 1, y) >= 0) --x;
+            return x;
+        }
+        else {
+            while (find(x, y - 1) >= 0) --y;
+            return y;
+        }
+    }
+
+    /** See {@link qwirkle.game.base.QwirkleGrid#getRunEnd}. */
+    int getRunEnd(int x, int y, boolean horizontal) {
+        if (horizontal) {
+            while (find(x + 1, y) >= 0) ++x;
+            return x;
+        }
+        else {
+            while (find(x, y + 1) >= 0) ++y;
+            return y;
+        }
+    }
+
+    /** See {@link qwirkle.game.base.QwirkleGrid#isContiguous}. */
+    boolean isContiguous(boolean horizontal, int fixed, int from, int to) {
+        for (int i = from; i <= to; ++i)
+            if ((horizontal ? find(i, fixed) : find(fixed, i)) < 0)
+                return false;
+        return true;
+    }
+}
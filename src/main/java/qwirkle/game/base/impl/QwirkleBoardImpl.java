@@ -2,50 +2,239 @@ package qwirkle.game.base.impl;
 
 import qwirkle.game.base.*;
 
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-// TODO implement as overwrite immutable so that we don't have to recreate all the QwirkleLine's each time
 /** Game logic of a Qwirkle board. */
-public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
-    private Set<QwirkleLine> lines = null;
+public class QwirkleBoardImpl extends PackedQwirkleGrid implements QwirkleBoard {
+    // the line running through each piece, in each direction
+    private Map<QwirkleLocation, QwirkleLine> horizontalLines = null, verticalLines = null;
+    private volatile Set<QwirkleLine> lines = null;
+    // the empty spots next to pieces, and which pieces can go in each of them -- see buildFrontier()
+    private QwirkleLocation[] frontier = null;
+    private long[] frontierMasks = null;
+    // Boards are shared between threads, so the lazily built fields above are built just once, under
+    // a lock, and then these flags are set. Readers check a flag first, which makes everything written
+    // before it was set visible to them -- so once things are built, reading them never locks.
+    private volatile boolean linesBuilt = false, frontierBuilt = false;
+    // legal placements already worked out, by kind of piece -- softly held, so that
+    // boards back in the undo chain don't pin them all
+    private volatile SoftReference<ConcurrentMap<QwirklePiece, Collection<QwirklePlacement>>> placementCache = null;
     private Collection<QwirklePlacement> lastPlay = null;
     private int lastScore = -1;
     private int turnCount = 0;
-    private QwirkleBoard previous = null;
+    // the way back to the board before this one -- not the board itself, so that it can be collected
+    private Undo undo = null;
     private QwirkleSettings settings;
+    private long zobristHash = 0;
+
+    /** Makes boards that find pieces with a hash table, which suits any board. The default. */
+    public static final QwirkleBoardFactory HASHED = new QwirkleBoardFactory() {
+        @Override public QwirkleBoard create(QwirkleSettings settings) { return new QwirkleBoardImpl(settings); }
+        @Override public String toString() { return "hashed"; }
+    };
+
+    /** Makes boards that find pieces in a flat array covering the board -- quicker to look in, since
+     *  a game's pieces never spread very far. Only the first board played from another shares its
+     *  array, though; the rest copy it, so a search that tries many plays from one board may not gain. */
+    public static final QwirkleBoardFactory DENSE = new QwirkleBoardFactory() {
+        @Override public QwirkleBoard create(QwirkleSettings settings) { return new QwirkleBoardImpl(settings, true); }
+        @Override public String toString() { return "dense"; }
+    };
 
     /** Default constructor. */
     public QwirkleBoardImpl(QwirkleSettings settings) {
+        this(settings, false);
+    }
+
+    /** An empty board.
+     *  @param dense find pieces with a flat array rather than a hash table -- see {@link PackedQwirkleGrid} */
+    public QwirkleBoardImpl(QwirkleSettings settings, boolean dense) {
+        super(Collections.<QwirklePlacement>emptyList(), dense);
         initSettings(settings);
     }
 
-    private QwirkleBoardImpl
-            (Collection<QwirklePlacement> placements,
-             QwirkleBoard previous,
-             Collection<QwirklePlacement> lastPlay)
-    {
-        super(placements);
-        initSettings(previous.getSettings());
-        this.previous = previous;
-        this.turnCount = previous.getTurnCount() + 1;
+    /** Add <tt>lastPlay</tt> to <tt>previous</tt>, reusing its table of placements. */
+    private QwirkleBoardImpl(QwirkleBoardImpl previous, Collection<QwirklePlacement> lastPlay) {
+        this(previous, lastPlay, lastPlay);
+    }
+
+    /** Add <tt>added</tt> to <tt>previous</tt>, and remember it as <tt>lastPlay</tt> -- the same
+     *  placements, maybe in a different order. Everything is set here, so that a board is
+     *  complete by the time anybody else can see it. */
+    private QwirkleBoardImpl(QwirkleBoardImpl previous, Collection<QwirklePlacement> added,
+                             Collection<QwirklePlacement> lastPlay) {
+        super(previous, added);
+        initSettings(previous.settings);
+        this.undo = Undo.of(previous, settings.getUndoRetention());
+        this.turnCount = previous.turnCount + 1;
         this.lastPlay = lastPlay;
         this.lastScore = computeLastScore();
+        this.zobristHash = previous.zobristHash ^ zobristHash(added, settings);
+    }
+
+    /** Rebuild the board before <tt>next</tt>, by taking <tt>next</tt>'s last play back off. */
+    private QwirkleBoardImpl(QwirkleBoardImpl next, Undo undo) {
+        super(withoutLastPlay(next), next.isDense());
+        initSettings(next.settings);
+        this.undo = undo.parent;
+        this.turnCount = undo.turnCount;
+        this.lastPlay = undo.lastPlay;
+        this.lastScore = undo.lastScore;
+        this.zobristHash = next.zobristHash ^ zobristHash(next.lastPlay, settings);
     }
 
     /** Copy <tt>board</tt>. */
     public QwirkleBoardImpl(QwirkleBoard board) {
-        this(board.getPlacements(), board.getUndo(), board.getLastPlay());
+        super(board.getPlacements(), board instanceof PackedQwirkleGrid && ((PackedQwirkleGrid) board).isDense());
+        initSettings(board.getSettings());
+        this.undo = (board instanceof QwirkleBoardImpl)
+                ? ((QwirkleBoardImpl) board).undo
+                : Undo.of(board.getUndo(), settings.getUndoRetention());
+        this.turnCount = board.getTurnCount();
+        this.lastPlay = board.getLastPlay();
+        this.lastScore = board.getLastScore();
+        this.zobristHash = zobristHash(getPlacements(), settings);
+    }
+
+    private static List<QwirklePlacement> withoutLastPlay(QwirkleBoardImpl board) {
+        Set<QwirkleLocation> played = new HashSet<>();
+        for (QwirklePlacement placement : board.lastPlay)
+            played.add(placement.getLocation());
+        List<QwirklePlacement> result = new ArrayList<>(board.size() - played.size());
+        for (QwirklePlacement placement : board.getPlacements())
+            if (!played.contains(placement.getLocation()))
+                result.add(placement);
+        return result;
     }
 
-    @Override public QwirkleBoard getUndo() { return previous; }
+    /** The board before this one -- as it was, if it is still around, or else rebuilt, if the
+     *  settings' {@link UndoRetention} says to remember that far back. */
+    @Override public QwirkleBoard getUndo() {
+        if (undo == null)
+            return null;
+        QwirkleBoard result = undo.board.get();
+        if (result == null && undo.rebuildable) {
+            result = new QwirkleBoardImpl(this, undo);
+            undo.board = new WeakReference<>(result); // if two threads race here, one copy is dropped; no harm
+        }
+        return result;
+    }
+
+    /** The board before this one, if it is still around -- without rebuilding it. For deriving
+     *  things from, so it has to be one of us, with the same settings. */
+    private QwirkleBoardImpl getPreviousIfPresent() {
+        QwirkleBoard result = (undo == null) ? null : undo.board.get();
+        return (result instanceof QwirkleBoardImpl && result.getSettings() == settings)
+                ? (QwirkleBoardImpl) result : null;
+    }
+
+    /** A step back in a board's history -- enough to rebuild the board before it by taking its
+     *  last play back off, plus that board itself, for as long as something else is using it.
+     *  Remembers the steps before it as far back as the settings' {@link UndoRetention} says. */
+    private static final class Undo {
+        // about the board before: the play that made it, and so on
+        private final Collection<QwirklePlacement> lastPlay;
+        private final int lastScore, turnCount;
+        private final Undo parent; // the step before this one, or null if there isn't one or it's been forgotten
+        private final int depth; // how many steps, including this one
+        private final boolean rebuildable;
+        private volatile Reference<QwirkleBoard> board;
+
+        private Undo(QwirkleBoard board, Undo parent, boolean rebuildable) {
+            this.lastPlay = board.getLastPlay();
+            this.lastScore = board.getLastScore();
+            this.turnCount = board.getTurnCount();
+            this.parent = parent;
+            this.depth = (parent == null ? 0 : parent.depth) + 1;
+            this.rebuildable = rebuildable;
+            this.board = new WeakReference<>(board);
+        }
+
+        /** Copy <tt>that</tt>, but with a different <tt>parent</tt>. */
+        private Undo(Undo that, Undo parent) {
+            this.lastPlay = that.lastPlay;
+            this.lastScore = that.lastScore;
+            this.turnCount = that.turnCount;
+            this.parent = parent;
+            this.depth = (parent == null ? 0 : parent.depth) + 1;
+            this.rebuildable = that.rebuildable;
+            this.board = that.board;
+        }
+
+        /** The way back to <tt>board</tt> (null if there is no board), remembering as much of its
+         *  history as <tt>retention</tt> says to. */
+        static Undo of(QwirkleBoard board, UndoRetention retention) {
+            if (board == null)
+                return null;
+            int keep = retention.getDepth();
+            Undo history = (board instanceof QwirkleBoardImpl) ? ((QwirkleBoardImpl) board).undo : null;
+            return new Undo(board, trim(history, keep - 1), keep > 0);
+        }
+
+        /** <tt>undo</tt>, cut off after <tt>n</tt> steps -- copied, if it goes back further than that. */
+        private static Undo trim(Undo undo, int n) {
+            if (undo == null || n <= 0)
+                return null;
+            else if (undo.depth <= n)
+                return undo;
+            else
+                return new Undo(undo, trim(undo.parent, n - 1));
+        }
+    }
+
+    @Override public long getZobristHash() { return zobristHash; }
+
+    /** The Zobrist key of a placement: a pseudo-random number for each combination of location and
+     *  piece. Rather than a table of them, mix the location and piece together -- the board is unbounded.
+     *  The piece is numbered like {@link QwirkleLine}'s masks: its color's index in the settings, and its
+     *  shape's ordinal -- not {@link QwirkleSettings#getPieceCode}, which has no number for a shape
+     *  outside the game, though a board can hold one. A color outside the game gets a negative number. */
+    static long zobristKey(QwirklePlacement placement, QwirkleSettings settings) {
+        int color = settings.getColorIndex(placement.getColor());
+        if (color < 0)
+            color = -1 - placement.getColor().getOrdinal();
+        long piece = color * 64L + placement.getShape().ordinal();
+        return mix(mix(pack(placement.getX(), placement.getY())) + piece);
+    }
+
+    /** The Zobrist hash of some placements -- the XOR of their keys. */
+    static long zobristHash(Collection<QwirklePlacement> placements, QwirkleSettings settings) {
+        long result = 0;
+        for (QwirklePlacement placement : placements)
+            result ^= zobristKey(placement, settings);
+        return result;
+    }
+
+    /** Scramble the bits of <tt>z</tt> (the SplitMix64 finalizer). */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 
     @Override public Collection<QwirklePlacement> getLastPlay() { return lastPlay; }
 
     @Override public int getTurnCount() { return turnCount; }
 
     @Override public Collection<QwirkleLine> getLines() {
-        ensureLines();
-        return Collections.unmodifiableSet(lines);
+        Set<QwirkleLine> result = lines;
+        if (result == null) {
+            synchronized (this) {
+                result = lines;
+                if (result == null) {
+                    ensureLines();
+                    result = new HashSet<>(horizontalLines.values());
+                    result.addAll(verticalLines.values());
+                    result = lines = Collections.unmodifiableSet(result);
+                }
+            }
+        }
+        return result;
     }
 
     @Override
@@ -59,10 +248,17 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
         this.settings = settings;
     }
 
-    /** If lines haven't been built, build them. */
+    /** If lines haven't been built, build them. Call before reading
+     *  {@link #horizontalLines} or {@link #verticalLines}. */
     private void ensureLines() {
-        if (lines == null)
-            buildLines();
+        if (!linesBuilt) {
+            synchronized (this) {
+                if (!linesBuilt) {
+                    buildLines();
+                    linesBuilt = true;
+                }
+            }
+        }
     }
 
     @Override
@@ -71,10 +267,7 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
             throw new NullPointerException("Null play.");
         List<QwirklePlacement> play = new ArrayList<>();
         play.add(next);
-        List<QwirklePlacement> newPlacements
-                = new ArrayList<>(getPlacements());
-        newPlacements.add(next);
-        return new QwirkleBoardImpl(newPlacements, this, play);
+        return new QwirkleBoardImpl(this, play);
     }
 
     @Override
@@ -83,58 +276,75 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
         if (play == null || play.isEmpty())
             return this;
 
-        if (!isLegal(play))
+        // lay them down in order along their line
+        QwirklePlacement[] sorted = new QwirklePlacement[play.size()];
+        if (checkPlay(play, sorted) < 0)
             throw new IllegalStateException("Not a legal play: " + play);
+        return new QwirkleBoardImpl(this, Arrays.asList(sorted),
+                Collections.unmodifiableCollection(new ArrayList<>(play)));
+    }
 
-        // find an order to play these in that works
-        QwirkleBoardImpl scratch = findLegalSequence(play);
-        if (scratch == null)
-            throw new IllegalStateException("Not a legal move: " + play);
-        scratch.previous = this;
-        scratch.lastPlay = Collections.unmodifiableCollection
-                (new ArrayList<>(play));
-        scratch.turnCount = this.turnCount + 1;
-        scratch.lastScore = scratch.computeLastScore();
+    /** Index the <tt>QwirkleLine</tt>s by location -- incrementally from
+     *  the previous board's lines, if we can. */
+    private void buildLines() {
+        QwirkleBoardImpl previous = getPreviousIfPresent();
+        if (previous != null)
+            deriveLines(previous);
+        else {
+            horizontalLines = new HashMap<>();
+            verticalLines = new HashMap<>();
+            buildLines(true, horizontalLines);
+            buildLines(false, verticalLines);
+        }
+    }
 
-        return scratch;
+    /** Reuse <tt>parent</tt>'s lines, rebuilding only the ones that run through the last play. */
+    private void deriveLines(QwirkleBoardImpl parent) {
+        parent.ensureLines();
+        horizontalLines = new HashMap<>(parent.horizontalLines);
+        verticalLines = new HashMap<>(parent.verticalLines);
+        // pieces in the same play often share a line -- only build it once
+        Set<QwirkleLine> built = Collections.newSetFromMap(new IdentityHashMap<QwirkleLine, Boolean>());
+        for (QwirklePlacement placement : lastPlay) {
+            QwirkleLocation location = placement.getLocation();
+            if (!built.contains(horizontalLines.get(location)))
+                built.add(indexLine(buildLine(location, true), horizontalLines));
+            if (!built.contains(verticalLines.get(location)))
+                built.add(indexLine(buildLine(location, false), verticalLines));
+        }
     }
 
-    /** Build up the list of <tt>QwirkleLine</tt>s. */
-    private void buildLines() {
-        lines = new HashSet<>();
-//        if (previous != null) {
-//            lastPlay.
-//            for (QwirkleLine line : previous.getLines())
-//        }
-        // include padding of one so that we'll find blank spaces after all lines and close the lines.
-        buildLines(getHorizontalWalker(1));
-        buildLines(getVerticalWalker(1));
-    }
-
-    private void buildLines(GridWalker walker) {
-        for (LineWalker line : walker)
-            buildLines(line);
-    }
-
-    private void buildLines(LineWalker walker) {
-        QwirkleLine curLine = null;
-        for (QwirkleLocation location : walker) {
-            QwirklePlacement placement = getPlacement(location);
-            // found an empty spot
-            if (placement == null) {
-                if (curLine != null) { // reached the end of a line
-                    lines.add(curLine);
-                    curLine = null;
-                }
-            }
-            // found a piece
-            else {
-                if (curLine == null) // start a new line
-                    curLine = new QwirkleLine(placement, settings);
-                else // add it to the current line
-                    curLine = curLine.augment(placement);
-            }
+    /** Point each of <tt>line</tt>'s locations at it in <tt>index</tt>. */
+    private static QwirkleLine indexLine(QwirkleLine line, Map<QwirkleLocation, QwirkleLine> index) {
+        for (QwirklePlacement placement : line)
+            index.put(placement.getLocation(), line);
+        return line;
+    }
+
+    /** The line that runs through <tt>location</tt>, which must not be empty.
+     *  @param horizontal if true, the horizontal line; otherwise the vertical one */
+    private QwirkleLine buildLine(QwirkleLocation location, boolean horizontal) {
+        int x = location.getX(), y = location.getY();
+        int start = getRunStart(x, y, horizontal), end = getRunEnd(x, y, horizontal);
+        QwirkleLine result = null;
+        for (int i = start; i <= end; ++i) {
+            QwirklePlacement next = horizontal ? getPlacement(i, y) : getPlacement(x, i);
+            result = result == null ? new QwirkleLine(next, settings) : result.augment(next);
         }
+        return result;
+    }
+
+    /** Make a line out of each run of pieces in one direction. */
+    private void buildLines(boolean horizontal, final Map<QwirkleLocation, QwirkleLine> index) {
+        forEachRun(horizontal, new RunVisitor() {
+            @Override
+            public void visit(int fixed, int start, int end, QwirklePlacement[] placements) {
+                QwirkleLine line = new QwirkleLine(placements[0], settings);
+                for (int i = 1; i <= end - start; ++i)
+                    line = line.augment(placements[i]);
+                indexLine(line, index);
+            }
+        });
     }
 
     /** Compute the score of the most recent play. */
@@ -144,26 +354,42 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
         Set<QwirkleLine> lines = new HashSet<>();
         for (QwirklePlacement place : lastPlay)
             lines.addAll(getIntersectingLines(place.getLocation()));
+        return score(lines, lastPlay.size());
+    }
+
+    /** The score of a play of <tt>nPlaced</tt> pieces that formed or extended <tt>lines</tt>
+     *  (without duplicates). Shared with {@link QwirkleSearchBoard}. */
+    static int score(Iterable<QwirkleLine> lines, int nPlaced) {
         int result = 0;
         for (QwirkleLine line : lines)
             if (line.size() > 1) // ignore degenerate "line"s
                 result += line.getScore();
         // on the first turn, if you only played one piece, you get a point
-        if (result == 0 && lastPlay.size() > 0)
+        if (result == 0 && nPlaced > 0)
             result = 1;
         return result;
     }
 
+    /** The line through <tt>location</tt> in one direction, or null if it's empty. */
+    QwirkleLine getLine(QwirkleLocation location, boolean horizontal) {
+        ensureLines();
+        return (horizontal ? horizontalLines : verticalLines).get(location);
+    }
+
     /** All the lines that intersect <tt>location</tt>. */
     private Set<QwirkleLine> getIntersectingLines(QwirkleLocation location) {
         ensureLines(); // ensure lines have been built
         Set<QwirkleLine> result = new HashSet<>();
-        for (QwirkleLine line : lines)
-            if (line.contains(location))
-                result.add(line);
+        addIfPresent(horizontalLines.get(location), result);
+        addIfPresent(verticalLines.get(location), result);
         return result;
     }
 
+    private static void addIfPresent(QwirkleLine line, Collection<QwirkleLine> result) {
+        if (line != null)
+            result.add(line);
+    }
+
     @Override
     public int getLastScore() {
         return lastScore;
@@ -179,18 +405,25 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
         if (get(placement.getLocation()) != null)
             return false;
 
+        List<QwirkleLine> lines = getLinesWithEndpoint(placement.getLocation());
+        return isLegal(placement, lines.toArray(new QwirkleLine[lines.size()]), lines.size());
+    }
+
+    /** Is it legal to play <tt>placement</tt> in an empty spot next to the first <tt>n</tt> of
+     *  <tt>lines</tt> -- the lines that run up to it from each side? Shared with {@link QwirkleSearchBoard}. */
+    static boolean isLegal(QwirklePlacement placement, QwirkleLine[] lines, int n) {
         // 1. check all existing lines that this would join
         // (including lines of length 1)
-        Set<QwirkleLine> lines = getLinesWithEndpoint(placement.getLocation());
-        if (lines.isEmpty()) return false; // no matches
-        for (QwirkleLine line : lines) {
+        if (n == 0) return false; // no matches
+        for (int i = 0; i < n; ++i) {
             // if it doesn't fit with one of the lines, it's not legal
-            if (!line.isLegal(placement))
+            if (!lines[i].isLegal(placement))
                 return false;
         }
-        for (QwirkleLine line : lines) {
-            for (QwirkleLine other : lines) {
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
                 // If this placement would combine two existing lines to make a new line, is it a legal line?
+                QwirkleLine line = lines[i], other = lines[j];
                 if (line != other && line.isAlignedWith(other) && !line.canJoinWith(other, placement))
                     return false; // if the new line would not be legal, reject this placement
             }
@@ -202,176 +435,420 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
 
     @Override
     public boolean isLegal(Collection<QwirklePlacement> play) {
-        if (play.size() == 0)
-            return true;
+        return scoreIfLegal(play) >= 0;
+    }
 
-        if (!isInLineWithNoGaps(play))
-            return false;
+    @Override
+    public int score(Collection<QwirklePlacement> play) {
+        int result = scoreIfLegal(play);
+        if (result < 0)
+            throw new IllegalStateException("Not a legal play: " + play);
+        return result;
+    }
+
+    @Override
+    public int scoreIfLegal(Collection<QwirklePlacement> play) {
+        if (play == null || play.isEmpty())
+            return 0;
+        return checkPlay(play, new QwirklePlacement[play.size()]);
+    }
 
-        QwirkleBoardImpl next = findLegalSequence(play);
-        return next != null;
-    }
-
-    /** Find a legal sequence of moves to place <tt>play</tt>.
-     *  If there is one, return the new board that results.
-     *  Otherwise return null.
-     *
-     *  <p><strong>Warning:</strong> Doesn't set result's state correctly
-     *  (previous, lastMove, etc) -- for that, see {@link #play}.</p>*/
-    private QwirkleBoardImpl findLegalSequence(Collection<QwirklePlacement> play) {
-        Set<QwirklePlacement> remaining = new HashSet<>(play);
-        if (remaining.size() != play.size())
-            throw new IllegalArgumentException
-                    ("Duplicate placements: " + play);
-        QwirkleBoardImpl scratch = this;
-        // find an order that works, by playing them one at a time
-        while (!remaining.isEmpty()) {
-            // look for a piece that can be played next
-            QwirklePlacement chosen = null;
-            for (QwirklePlacement place : remaining) {
-                if (scratch.isLegal(place)) {
-                    chosen = place;
-                    remaining.remove(chosen);
-                    scratch = scratch.play(chosen);
-                    // only play & remove one at a time to avoid concurrent mod exception
-                    break;
+    // order a play along its line
+    private static final Comparator<QwirklePlacement>
+            BY_X = new Comparator<QwirklePlacement>() {
+                @Override public int compare(QwirklePlacement a, QwirklePlacement b) {
+                    return Integer.compare(a.getX(), b.getX());
+                }
+            },
+            BY_Y = new Comparator<QwirklePlacement>() {
+                @Override public int compare(QwirklePlacement a, QwirklePlacement b) {
+                    return Integer.compare(a.getY(), b.getY());
                 }
+            };
+
+    /** Check and score <tt>play</tt> in one pass, rather than searching for an order to lay its pieces
+     *  down in. A play is a single row or column, so sorted along it, it is legal if:
+     *  <ul>
+     *      <li>it leaves no gaps, except for spots already filled,</li>
+     *      <li>its pieces all land in empty spots,</li>
+     *      <li>the whole line it lies in is legal,</li>
+     *      <li>the line crossing each of its pieces is legal, and</li>
+     *      <li>it touches a piece that's already on the board (unless the board is empty).</li>
+     *  </ul>
+     *  Any line built while laying the pieces down one at a time is part of one of those lines,
+     *  so if they are legal, there is an order that works. And those lines are what it scores.
+     *  @param sorted filled in with <tt>play</tt>, sorted along its line; must be the same size
+     *  @return the score, or -1 if <tt>play</tt> isn't legal
+     *  @throws IllegalArgumentException if <tt>play</tt> has the same placement twice */
+    private int checkPlay(Collection<QwirklePlacement> play, QwirklePlacement[] sorted) {
+        play.toArray(sorted);
+
+        // is it a row or a column? (a single piece counts as a row)
+        boolean horizontal = true, vertical = true;
+        for (QwirklePlacement p : sorted) {
+            horizontal &= p.getY() == sorted[0].getY();
+            vertical &= p.getX() == sorted[0].getX();
+        }
+        if (!horizontal && !vertical)
+            return -1;
+        Arrays.sort(sorted, horizontal ? BY_X : BY_Y);
+        int dx = horizontal ? 1 : 0, dy = horizontal ? 0 : 1;
+
+        // no gaps, except where there are already pieces on the board
+        boolean duplicate = false, stacked = false;
+        for (int i = 1; i < sorted.length; ++i) {
+            QwirklePlacement prev = sorted[i - 1], next = sorted[i];
+            // pieces in the same spot end up next to each other
+            for (int j = i - 1; j >= 0 && sorted[j].getLocation().equals(next.getLocation()); --j) {
+                if (sorted[j].equals(next)) duplicate = true;
+                else stacked = true;
             }
-            if (chosen == null)
-                return null;
+            if (horizontal ? !isContiguous(true, next.getY(), prev.getX() + 1, next.getX() - 1)
+                    : !isContiguous(false, next.getX(), prev.getY() + 1, next.getY() - 1))
+                return -1;
         }
-        return scratch;
-    }
-
-    private boolean isInLineWithNoGaps(Collection<QwirklePlacement> play) {
-        NavigableSet<QwirkleLocation> locations = new TreeSet<>();
-        // put them in order of increasing x & y
-        for (QwirklePlacement p : play)
-            locations.add(p.getLocation());
-        return isVerticalWithNoGaps(locations) || isHorizontalWithNoGaps(locations);
-    }
-
-    private boolean isVerticalWithNoGaps(NavigableSet<QwirkleLocation> play) {
-        Iterator<QwirkleLocation> i = play.iterator();
-        QwirkleLocation here = i.next();
-        int y = here.getY(), x = here.getX();
-        // walk from one end of the play to the other
-        // each position must be either already on the board
-        // or in the list of pieces to be played
-        while (i.hasNext()) {
-            QwirkleLocation next = i.next();
-            if (next.getX() != x) // is it vertical (all x's same)?
-                return false;
-            ++y;
-            while (y < next.getY())
-                if (get(new QwirkleLocation(x, y)) == null)
-                    return false;
-                else
-                    ++y;
+        if (duplicate)
+            throw new IllegalArgumentException("Duplicate placements: " + play);
+        if (stacked)
+            return -1;
+
+        // walk the whole line, starting with whatever is already on the board before the play
+        QwirklePlacement first = sorted[0], last = sorted[sorted.length - 1];
+        QwirkleLine line = getLine(QwirkleLocation.of(first.getX() - dx, first.getY() - dy), horizontal);
+        boolean touching = size() == 0 || line != null;
+        QwirkleLine[] crossing = new QwirkleLine[2];
+        int result = 0, i = 0;
+        for (int x = first.getX(), y = first.getY(); i < sorted.length; x += dx, y += dy) {
+            QwirklePlacement next = getPlacement(x, y);
+            if (sorted[i].getLocation().equals(x, y)) {
+                if (next != null) // occludes an existing piece
+                    return -1;
+                next = sorted[i++];
+                // the line crossing this piece -- only this piece is new in it
+                int n = 0;
+                QwirkleLine before = getLine(QwirkleLocation.of(x - dy, y - dx), !horizontal),
+                        after = getLine(QwirkleLocation.of(x + dy, y + dx), !horizontal);
+                if (before != null) crossing[n++] = before;
+                if (after != null) crossing[n++] = after;
+                if (n > 0) {
+                    touching = true;
+                    if (!isLegal(next, crossing, n))
+                        return -1;
+                    result += join(before, next, after, settings).getScore();
+                }
+            }
+            else
+                touching = true; // filling in a gap in the play
+            if (line == null)
+                line = new QwirkleLine(next, settings);
+            else if (line.isLegal(next))
+                line = line.augment(next);
+            else
+                return -1;
         }
-        return true;
+        // and then whatever is on the board after it
+        QwirkleLine after = getLine(QwirkleLocation.of(last.getX() + dx, last.getY() + dy), horizontal);
+        if (after != null) {
+            touching = true;
+            for (QwirklePlacement next : after) {
+                if (!line.isLegal(next))
+                    return -1;
+                line = line.augment(next);
+            }
+        }
+        if (!touching)
+            return -1;
+        if (line.size() > 1)
+            result += line.getScore();
+        // on the first turn, if you only played one piece, you get a point
+        return result == 0 ? 1 : result;
     }
 
-    private boolean isHorizontalWithNoGaps(NavigableSet<QwirkleLocation> play) {
-        Iterator<QwirkleLocation> i = play.iterator();
-        QwirkleLocation here = i.next();
-        int y = here.getY(), x = here.getX();
-        // walk from one end of the play to the other
-        // each position must be either already on the board
-        // or in the list of pieces to be played
-        while (i.hasNext()) {
-            QwirkleLocation next = i.next();
-            if (next.getY() != y) // is it horizontal (all y's same)?
-                return false;
-            ++x;
-            while (x < next.getX())
-                if (get(new QwirkleLocation(x, y)) == null)
-                    return false;
-                else
-                    ++x;
-        }
-        return true;
+    /** The line formed by <tt>placement</tt> joining <tt>before</tt> and <tt>after</tt>, either of
+     *  which may be null. Doesn't check whether it's legal. Shared with {@link QwirkleSearchBoard}. */
+    static QwirkleLine join(QwirkleLine before, QwirklePlacement placement, QwirkleLine after,
+                            QwirkleSettings settings)
+    {
+        QwirkleLine result = (before == null)
+                ? new QwirkleLine(placement, settings)
+                : before.augment(placement);
+        if (after != null)
+            for (QwirklePlacement p : after) // in order, starting next to placement
+                result = result.augment(p);
+        return result;
     }
 
-    /** All open endpoints of lines. */
+    /** All open endpoints of lines -- that is, every empty spot next to a piece. */
     private Set<QwirkleLocation> getAllEndpoints() {
-        ensureLines();
         Set<QwirkleLocation> result = new HashSet<>();
-        for (QwirkleLine line : lines)
-            for (QwirkleLocation location : line.getEnds())
-                // single-length lines have 4 endpoints, which often overlap other lines
+        for (QwirklePlacement placement : getPlacements())
+            for (QwirkleLocation location : placement.getLocation().getNeighbors())
                 if (!hasPieceAt(location))
                     result.add(location);
         return result;
     }
 
-    /** The lines with this point as an endpoint. */
-    private Set<QwirkleLine> getLinesWithEndpoint(QwirkleLocation location) {
+    /** The lines with this point as an endpoint -- that is, the lines that
+     *  run up to it from each side. An isolated neighboring piece counts as a line of size 1. */
+    private List<QwirkleLine> getLinesWithEndpoint(QwirkleLocation location) {
         ensureLines();
-        Set<QwirkleLine> result = new HashSet<>();
-        boolean containsSingles = false, containsBigs = false;
-        for (QwirkleLine line : lines)
-            if (line.getEnds().contains(location)) {
-                result.add(line);
-                if (line.size() == 1) containsSingles = true;
-                else if (line.size() > 1) containsBigs = true;
-            }
-        // remove single-length lines that are subsets of longer lines in the result
-        if (containsSingles && containsBigs) {
-            List<QwirkleLine> resultCopy = new ArrayList<>(result);
-            for (QwirkleLine single : resultCopy) {
-                if (single.size() == 1) {
-                    QwirklePlacement place = single.iterator().next();
-                    for (QwirkleLine bigger : result) {
-                        if (bigger.size() > 1 && bigger.contains(place)) {
-                            result.remove(single);
-                            break; // go on to the next single (and avoid a ConcurrentModificationException)
-                        }
-                    }
+        List<QwirkleLine> result = new ArrayList<>(4);
+        addIfPresent(horizontalLines.get(location.getLeft()), result);
+        addIfPresent(horizontalLines.get(location.getRight()), result);
+        addIfPresent(verticalLines.get(location.getBelow()), result);
+        addIfPresent(verticalLines.get(location.getAbove()), result);
+        return result;
+    }
+
+    /** If the frontier hasn't been built, build it. Call before reading
+     *  {@link #frontier} or {@link #frontierMasks}. */
+    private void ensureFrontier() {
+        if (!frontierBuilt) {
+            synchronized (this) {
+                if (!frontierBuilt) {
+                    buildFrontier();
+                    frontierBuilt = true;
                 }
             }
         }
-        return result;
+    }
+
+    /** Find every empty spot next to a piece, and work out which pieces could legally go there.
+     *  For each spot, {@link #frontierMasks} holds a bitmask of legal shapes for each color, by
+     *  the color's index in the settings -- so checking a piece is a single bit test.
+     *  Derived from the previous board's frontier, if we can. */
+    private void buildFrontier() {
+        ensureLines();
+        QwirkleBoardImpl previous = getPreviousIfPresent();
+        if (previous != null)
+            deriveFrontier(previous);
+        else {
+            int nColors = settings.getColors().size();
+            Set<QwirkleLocation> endpoints = getAllEndpoints();
+            QwirkleLocation[] cells = endpoints.toArray(new QwirkleLocation[endpoints.size()]);
+            long[] masks = new long[cells.length * nColors];
+            for (int i = 0; i < cells.length; ++i)
+                computeMask(cells[i], masks, i * nColors);
+            frontierMasks = masks;
+            frontier = cells;
+        }
+    }
+
+    /** Reuse <tt>parent</tt>'s frontier. Only the spots at the ends of the lines through the
+     *  last play can have changed, so only work those out again. */
+    private void deriveFrontier(QwirkleBoardImpl parent) {
+        parent.ensureFrontier();
+        int nColors = settings.getColors().size();
+        Set<QwirkleLocation> changed = new HashSet<>();
+        for (QwirklePlacement placement : lastPlay) {
+            changed.addAll(horizontalLines.get(placement.getLocation()).getEnds());
+            changed.addAll(verticalLines.get(placement.getLocation()).getEnds());
+        }
+        QwirkleLocation[] cells = new QwirkleLocation[parent.frontier.length + changed.size()];
+        long[] masks = new long[cells.length * nColors];
+        int n = 0;
+        // the parent's spots that are still open and haven't changed
+        for (int i = 0; i < parent.frontier.length; ++i) {
+            QwirkleLocation cell = parent.frontier[i];
+            if (!changed.contains(cell) && !hasPieceAt(cell)) {
+                System.arraycopy(parent.frontierMasks, i * nColors, masks, n * nColors, nColors);
+                cells[n++] = cell;
+            }
+        }
+        // the spots next to the play
+        for (QwirkleLocation cell : changed) {
+            if (!hasPieceAt(cell)) {
+                computeMask(cell, masks, n * nColors);
+                cells[n++] = cell;
+            }
+        }
+        frontierMasks = Arrays.copyOf(masks, n * nColors);
+        frontier = Arrays.copyOf(cells, n);
+    }
+
+    /** Work out which pieces could legally go in <tt>cell</tt>, and put them in the masks starting at <tt>offset</tt>. */
+    private void computeMask(QwirkleLocation cell, long[] masks, int offset) {
+        Arrays.fill(masks, offset, offset + settings.getColors().size(), -1L);
+        constrain(masks, offset, horizontalLines.get(cell.getLeft()), horizontalLines.get(cell.getRight()));
+        constrain(masks, offset, verticalLines.get(cell.getBelow()), verticalLines.get(cell.getAbove()));
+    }
+
+    /** Narrow the masks starting at <tt>offset</tt> down to the pieces that could join <tt>before</tt>
+     *  and <tt>after</tt> -- the lines on either side of a spot, either of which may be null -- into
+     *  a single legal line. The same rules as {@link #isLegal(QwirklePlacement)}, but for all pieces at once. */
+    private void constrain(long[] masks, int offset, QwirkleLine before, QwirkleLine after) {
+        if (before == null && after == null)
+            return;
+        long colors = 0, shapes = 0;
+        int n = 0;
+        Set<QwirkleColor> otherColors = null; // colors with no bit, if any
+        for (QwirkleLine line : new QwirkleLine[] { before, after }) {
+            if (line == null)
+                continue;
+            if (line.isComplete()) { // nothing can be added to it
+                Arrays.fill(masks, offset, offset + settings.getColors().size(), 0);
+                return;
+            }
+            colors |= line.getColorMask();
+            shapes |= line.getShapeMask();
+            n += line.size();
+            if (!line.getOtherColors().isEmpty()) {
+                if (otherColors == null)
+                    otherColors = new HashSet<>();
+                otherColors.addAll(line.getOtherColors());
+            }
+        }
+        // the new line has n + 1 pieces, either all the same color or all the same shape
+        int nColors = settings.getColors().size(), nShapes = settings.getShapes().size();
+        int nOther = (otherColors == null) ? 0 : otherColors.size();
+        for (int c = 0; c < nColors; ++c) {
+            // how many colors the new line would have, with c -- which has no bit past the 64th
+            int withColor = (c < Long.SIZE) ? Long.bitCount(colors | (1L << c)) + nOther
+                    : Long.bitCount(colors) + nOther
+                            + (nOther > 0 && otherColors.contains(settings.getColors().get(c)) ? 0 : 1);
+            long legal = 0;
+            // same color, with a shape that isn't there yet
+            if (withColor == 1 && Long.bitCount(shapes) == n && n < nShapes)
+                legal |= ~shapes;
+            // same shape, with a color that isn't there yet
+            if (Long.bitCount(shapes) == 1 && withColor == n + 1 && n < nColors)
+                legal |= shapes;
+            masks[offset + c] &= legal;
+        }
     }
 
     @Override
     public Collection<QwirklePlacement> getLegalPlacements
             (QwirklePiece piece)
     {
-        Set<QwirklePlacement> result = new HashSet<>();
-        // empty board: place at 0, 0
-        if (size() == 0)
-            result.add(new QwirklePlacement(piece, 0, 0));
-        else {
-            // check each open space
-            for (QwirkleLocation location : getAllEndpoints()) {
-                QwirklePlacement placement = new QwirklePlacement(piece, location);
-                if (isLegal(placement))
-                    result.add(placement);
-/*
-                // is that open space okay for all lines that touch it?
-                boolean allLegal = true;
-                Set<QwirkleLine> lines = getLinesWithEndpoint(location);
-                for (QwirkleLine line : lines) {
-                    if (!line.isLegal(placement)) {
-                        allLegal = false;
-                        break;
-                    }
-                }
-                if (allLegal) {
-                    if (lines.size() == 1)
-                        result.add(placement);
-                    else if (lines.size() > 1 && isLegal(placement))
-                    // if more than one line, would the new line that is created be a legal line too?
-                    if (lines.size() < 2 || isLegal(placement))
-                        result.add(placement);
+        // remember the answer -- a search, or a player dragging a piece around, asks again and again
+        ConcurrentMap<QwirklePiece, Collection<QwirklePlacement>> cache = getPlacementCache();
+        Collection<QwirklePlacement> result = cache.get(piece);
+        if (result == null) {
+            result = Collections.unmodifiableCollection(getLegalPlacements(Collections.singleton(piece)).get(piece));
+            cache.putIfAbsent(piece.getCanonical(), result);
+        }
+        // cached for a different tile of the same kind? The UI tells tiles apart, so use this one
+        else if (!result.isEmpty() && result.iterator().next().getPiece() != piece) {
+            Set<QwirklePlacement> placements = new HashSet<>();
+            for (QwirklePlacement placement : result)
+                placements.add(QwirklePlacement.of(piece, placement.getLocation()));
+            result = Collections.unmodifiableSet(placements);
+        }
+        return result;
+    }
+
+    /** The cache of legal placements, by piece. At most one entry per kind of piece. */
+    private ConcurrentMap<QwirklePiece, Collection<QwirklePlacement>> getPlacementCache() {
+        SoftReference<ConcurrentMap<QwirklePiece, Collection<QwirklePlacement>>> ref = placementCache;
+        ConcurrentMap<QwirklePiece, Collection<QwirklePlacement>> result = (ref == null) ? null : ref.get();
+        if (result == null) { // never built, or reclaimed
+            synchronized (this) {
+                ref = placementCache;
+                result = (ref == null) ? null : ref.get();
+                if (result == null) {
+                    result = new ConcurrentHashMap<>();
+                    placementCache = new SoftReference<>(result);
                 }
-*/
             }
         }
         return result;
     }
 
+    @Override
+    public Map<QwirklePiece, Collection<QwirklePlacement>> getLegalPlacements
+            (Collection<QwirklePiece> hand)
+    {
+        Map<QwirklePiece, Collection<QwirklePlacement>> result = new LinkedHashMap<>();
+        for (QwirklePiece piece : hand)
+            if (!result.containsKey(piece))
+                result.put(piece, new HashSet<QwirklePlacement>());
+        // empty board: place at 0, 0
+        if (size() == 0) {
+            for (Map.Entry<QwirklePiece, Collection<QwirklePlacement>> entry : result.entrySet())
+                entry.getValue().add(QwirklePlacement.of(entry.getKey(), 0, 0));
+            return result;
+        }
+
+        ensureFrontier();
+        if (settings.getHandMatching() == HandMatching.BY_COLOR)
+            matchByColor(result);
+        else
+            matchPerPiece(result);
+        // the masks only cover the game's colors -- check any others a spot at a time
+        for (Map.Entry<QwirklePiece, Collection<QwirklePlacement>> entry : result.entrySet())
+            if (settings.getColorIndex(entry.getKey().getColor()) < 0)
+                for (QwirkleLocation cell : frontier) {
+                    QwirklePlacement placement = QwirklePlacement.of(entry.getKey(), cell);
+                    if (isLegal(placement))
+                        entry.getValue().add(placement);
+                }
+        return result;
+    }
+
+    /** Fill in <tt>result</tt>'s placements by checking each piece against each spot on the frontier. */
+    private void matchPerPiece(Map<QwirklePiece, Collection<QwirklePlacement>> result) {
+        // where to look in the masks for each piece
+        int nPieces = result.size(), nColors = settings.getColors().size();
+        QwirklePiece[] pieces = result.keySet().toArray(new QwirklePiece[nPieces]);
+        int[] colorIndexes = new int[nPieces];
+        long[] shapeBits = new long[nPieces];
+        for (int i = 0; i < nPieces; ++i) {
+            colorIndexes[i] = settings.getColorIndex(pieces[i].getColor());
+            shapeBits[i] = 1L << pieces[i].getShape().ordinal();
+        }
+
+        // one pass over the frontier for the whole hand
+        for (int cell = 0; cell < frontier.length; ++cell)
+            for (int i = 0; i < nPieces; ++i)
+                if (colorIndexes[i] >= 0 && (frontierMasks[cell * nColors + colorIndexes[i]] & shapeBits[i]) != 0)
+                    result.get(pieces[i]).add(QwirklePlacement.of(pieces[i], frontier[cell]));
+    }
+
+    // how many shapes there could be -- the masks are by shape ordinal, like QwirkleLine's, since a
+    // board can hold shapes that aren't in the game
+    private static final int N_SHAPES = QwirkleShape.values().length;
+
+    /** Fill in <tt>result</tt>'s placements a color at a time: OR together the shapes of the hand's
+     *  pieces of each color, so that one AND with a spot's mask for that color finds all of them
+     *  that fit there. Usually the AND is zero, and that's the end of it. */
+    private void matchByColor(Map<QwirklePiece, Collection<QwirklePlacement>> result) {
+        int nColors = settings.getColors().size(), nShapes = N_SHAPES;
+        // the hand, grouped by color: which color, which shapes, and where each piece's placements go
+        int[] groupColors = new int[result.size()];
+        long[] groupShapes = new long[result.size()];
+        QwirklePiece[] groupPieces = new QwirklePiece[result.size() * nShapes];
+        List<Collection<QwirklePlacement>> groupResults
+                = new ArrayList<>(Collections.<Collection<QwirklePlacement>>nCopies(groupPieces.length, null));
+        int nGroups = 0;
+        for (Map.Entry<QwirklePiece, Collection<QwirklePlacement>> entry : result.entrySet()) {
+            int color = settings.getColorIndex(entry.getKey().getColor());
+            int shape = entry.getKey().getShape().ordinal();
+            if (color < 0)
+                continue; // not in this game -- no masks; getLegalPlacements checks it separately
+            int g = 0;
+            while (g < nGroups && groupColors[g] != color)
+                ++g;
+            if (g == nGroups) {
+                groupColors[g] = color;
+                ++nGroups;
+            }
+            groupShapes[g] |= 1L << shape;
+            groupPieces[g * nShapes + shape] = entry.getKey();
+            groupResults.set(g * nShapes + shape, entry.getValue());
+        }
+
+        for (int cell = 0; cell < frontier.length; ++cell)
+            for (int g = 0; g < nGroups; ++g) {
+                long fits = frontierMasks[cell * nColors + groupColors[g]] & groupShapes[g];
+                while (fits != 0) {
+                    int i = g * nShapes + Long.numberOfTrailingZeros(fits);
+                    groupResults.get(i).add(QwirklePlacement.of(groupPieces[i], frontier[cell]));
+                    fits &= fits - 1;
+                }
+            }
+    }
+
     @Override
     public Collection<QwirklePlacement> getLegalPlacements
             (Collection<QwirklePlacement> play, QwirklePiece piece)
@@ -379,16 +856,10 @@ public class QwirkleBoardImpl extends QwirkleGridImpl implements QwirkleBoard {
         if (play == null || play.isEmpty())
             return getLegalPlacements(piece);
         else {
-            Collection<QwirklePlacement> candidates = play(play).getLegalPlacements(piece);
-            List<QwirklePlacement> result = new ArrayList<>();
-            List<QwirklePlacement> scratch = new ArrayList<>(play);
-            for (QwirklePlacement candidate : candidates) {
-                scratch.add(candidate);
-                if (isLegal(scratch))
-                    result.add(candidate);
-                scratch.remove(candidate);
-            }
-            return result;
+            QwirkleSearchBoard scratch = new QwirkleSearchBoard(this);
+            if (!isLegal(play) || !scratch.pushAll(play))
+                throw new IllegalStateException("Not a legal play: " + play);
+            return scratch.getLegalPlacements(piece);
         }
     }
 }
@@ -6,13 +6,19 @@ import java.util.*;
 
 /** Basic geometry of a Qwirkle board. For game logic, see subclass. */
 public class QwirkleGridImpl implements QwirkleGrid {
-    private List<QwirklePlacement> placements = new ArrayList<>();
-    private Map<QwirkleLocation, QwirklePlacement> board = new HashMap<>();
+    private final List<QwirklePlacement> placements;
+    private final Map<QwirkleLocation, QwirklePlacement> board = new HashMap<>();
+    private final int xMin, xMax, yMin, yMax;
 
     public QwirkleGridImpl(Collection<QwirklePlacement> placements) {
         this.placements = new ArrayList<>(placements);
         for (QwirklePlacement placement : placements)
             board.put(placement.getLocation(), placement);
+        // the grid never changes, so just work out the bounds now
+        xMin = QwirkleGridTools.getXMin(this.placements);
+        xMax = QwirkleGridTools.getXMax(this.placements);
+        yMin = QwirkleGridTools.getYMin(this.placements);
+        yMax = QwirkleGridTools.getYMax(this.placements);
     }
 
     /** Create an empty grid. */
@@ -42,7 +48,7 @@ public class QwirkleGridImpl implements QwirkleGrid {
 
     @Override
     public QwirklePlacement getPlacement(int x, int y) {
-        return getPlacement(new QwirkleLocation(x, y));
+        return getPlacement(QwirkleLocation.of(x, y));
     }
 
     @Override
@@ -60,48 +66,30 @@ public class QwirkleGridImpl implements QwirkleGrid {
         return new GridWalkerImpl(this, padding, false);
     }
 
-    private static class CacheableInt {
-        private interface Compute { int compute(); }
-        private Integer value = null;
-        int get(Compute compute) {
-            if (value == null)
-                value = compute.compute();
-            return value;
-        }
-    }
-
-    // 0 = x min, 1 = x max, 2 = y min, 3 = y max
-    CacheableInt[] minMax = { new CacheableInt(), new CacheableInt(), new CacheableInt(), new CacheableInt() };
-
-    @Override public int getXMin() {
-        return minMax[0].get(new CacheableInt.Compute() {
-            @Override
-            public int compute() {
-                return QwirkleGridTools.getXMin(placements);
-            }
-        });
-    }
-    @Override public int getXMax() {
-        return minMax[1].get(new CacheableInt.Compute() {
-            @Override
-            public int compute() {
-                return QwirkleGridTools.getXMax(placements);
-            }
-        });
-    }
-    @Override public int getYMin() {
-        return minMax[2].get(new CacheableInt.Compute() {
-            @Override public int compute() { return QwirkleGridTools.getYMin(placements); }
-        });
-    }
-    @Override public int getYMax() {
-        return minMax[3].get(new CacheableInt.Compute() {
-            @Override
-            public int compute() {
-                return QwirkleGridTools.getYMax(placements);
-            }
-        });
+    @Override
+    public void forEachRun(boolean horizontal, RunVisitor visitor) {
+        QwirkleGridTools.forEachRun(this, horizontal, visitor);
+    }
+
+    @Override
+    public int getRunStart(int x, int y, boolean horizontal) {
+        return QwirkleGridTools.getRunStart(this, x, y, horizontal);
     }
+
+    @Override
+    public int getRunEnd(int x, int y, boolean horizontal) {
+        return QwirkleGridTools.getRunEnd(this, x, y, horizontal);
+    }
+
+    @Override
+    public boolean isContiguous(boolean horizontal, int fixed, int from, int to) {
+        return QwirkleGridTools.isContiguous(this, horizontal, fixed, from, to);
+    }
+
+    @Override public int getXMin() { return xMin; }
+    @Override public int getXMax() { return xMax; }
+    @Override public int getYMin() { return yMin; }
+    @Override public int getYMax() { return yMax; }
     @Override public int getWidth() { return getXMax() - getXMin() + 1; }
     @Override public int getHeight() { return getYMax() - getYMin() + 1; }
 
@@ -126,22 +114,6 @@ public class QwirkleGridImpl implements QwirkleGrid {
 
     @Override
     public String toString(String linePrefix) {
-        StringBuilder s = new StringBuilder();
-        QwirklePiece sample = new QwirklePiece(QwirkleColor.BLUE, QwirkleShape.circle);
-        String space = "          ".substring(0, sample.getAbbrev().length());
-        for (LineWalker line : getHorizontalWalker(0)) {
-            s.append(linePrefix);
-            for (QwirkleLocation location : line) {
-                QwirklePiece piece = get(location);
-                String abbrev = piece == null ? space : piece.getAbbrev();
-                // highlight the center of the board -- frame (0,0) by putting bars '|' on either side
-                String frame = (location.getY() == 0 && (location.getX() == -1 || location.getX() == 0)) ? "|" : " ";
-                s.append(abbrev).append(frame);
-            }
-            s.append("\n");
-        }
-//        for (QwirkleLine line : lines)
-//            s.append("   ").append(line).append("\n");
-        return s.toString();
+        return QwirkleGridTools.toString(this, linePrefix);
     }
 }
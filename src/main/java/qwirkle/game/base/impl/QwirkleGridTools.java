@@ -1,6 +1,6 @@
 package qwirkle.game.base.impl;
 
-import qwirkle.game.base.HasQwirkleLocation;
+import qwirkle.game.base.*;
 
 import java.util.Collection;
 
@@ -52,4 +52,81 @@ public class QwirkleGridTools {
             return result;
         }
     }
+
+    /** Visit the runs of pieces in <tt>grid</tt>, by probing each spot inside its bounds with
+     *  {@link QwirkleGrid#getPlacement(int, int)}. See {@link QwirkleGrid#forEachRun}. */
+    public static void forEachRun(QwirkleGrid grid, boolean horizontal, QwirkleGrid.RunVisitor visitor) {
+        if (grid.size() == 0)
+            return;
+        int fixedMin = horizontal ? grid.getYMin() : grid.getXMin(),
+                fixedMax = horizontal ? grid.getYMax() : grid.getXMax(),
+                min = horizontal ? grid.getXMin() : grid.getYMin(),
+                max = horizontal ? grid.getXMax() : grid.getYMax();
+        // one buffer for all the runs -- and a local one, since grids are shared between threads
+        QwirklePlacement[] run = new QwirklePlacement[max - min + 1];
+        for (int fixed = fixedMin; fixed <= fixedMax; ++fixed) {
+            int n = 0;
+            for (int i = min; i <= max + 1; ++i) {
+                QwirklePlacement placement = (i > max) ? null
+                        : (horizontal ? grid.getPlacement(i, fixed) : grid.getPlacement(fixed, i));
+                if (placement != null)
+                    run[n++] = placement;
+                else if (n > 0) { // reached the end of a run
+                    visitor.visit(fixed, i - n, i - 1, run);
+                    n = 0;
+                }
+            }
+        }
+    }
+
+    /** Walk back from (x, y) through pieces in <tt>grid</tt>. See {@link QwirkleGrid#getRunStart}. */
+    public static int getRunStart(QwirkleGrid grid, int x, int y, boolean horizontal) {
+        if (horizontal) {
+            while (grid.getPlacement(x - 1, y) != null) --x;
+            return x;
+        }
+        else {
+            while (grid.getPlacement(x, y - 1) != null) --y;
+            return y;
+        }
+    }
+
+    /** Walk forward from (x, y) through pieces in <tt>grid</tt>. See {@link QwirkleGrid#getRunEnd}. */
+    public static int getRunEnd(QwirkleGrid grid, int x, int y, boolean horizontal) {
+        if (horizontal) {
+            while (grid.getPlacement(x + 1, y) != null) ++x;
+            return x;
+        }
+        else {
+            while (grid.getPlacement(x, y + 1) != null) ++y;
+            return y;
+        }
+    }
+
+    /** Check every spot from <tt>from</tt> to <tt>to</tt> in <tt>grid</tt>. See {@link QwirkleGrid#isContiguous}. */
+    public static boolean isContiguous(QwirkleGrid grid, boolean horizontal, int fixed, int from, int to) {
+        for (int i = from; i <= to; ++i)
+            if ((horizontal ? grid.getPlacement(i, fixed) : grid.getPlacement(fixed, i)) == null)
+                return false;
+        return true;
+    }
+
+    /** Render <tt>grid</tt> as a String, with each line prefixed by <tt>linePrefix</tt>. */
+    public static String toString(QwirkleGrid grid, String linePrefix) {
+        StringBuilder s = new StringBuilder();
+        QwirklePiece sample = new QwirklePiece(QwirkleColor.BLUE, QwirkleShape.circle);
+        String space = "          ".substring(0, sample.getAbbrev().length());
+        for (QwirkleGrid.LineWalker line : grid.getHorizontalWalker(0)) {
+            s.append(linePrefix);
+            for (QwirkleLocation location : line) {
+                QwirklePiece piece = grid.get(location);
+                String abbrev = piece == null ? space : piece.getAbbrev();
+                // highlight the center of the board -- frame (0,0) by putting bars '|' on either side
+                String frame = (location.getY() == 0 && (location.getX() == -1 || location.getX() == 0)) ? "|" : " ";
+                s.append(abbrev).append(frame);
+            }
+            s.append("\n");
+        }
+        return s.toString();
+    }
 }
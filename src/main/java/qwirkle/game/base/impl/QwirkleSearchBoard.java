@@ -0,0 +1,198 @@
+package qwirkle.game.base.impl;
+
+import qwirkle.game.base.*;
+
+import java.util.*;
+
+/** A mutable scratch board for searching through possible plays. Starting from a board,
+ *  {@link #push} placements one at a time and {@link #pop} them off again, so that a
+ *  depth-first search can walk the tree of plays without creating a board per node.
+ *
+ *  <p>Uses the same legality and scoring rules as {@link QwirkleBoardImpl}. Only the
+ *  lines through pushed pieces are rebuilt; everything else comes from the starting board.</p>
+ *
+ *  <p>Not thread-safe -- use one per search.</p> */
+public class QwirkleSearchBoard {
+    private final QwirkleBoardImpl board;
+    private final List<QwirklePlacement> play = new ArrayList<>();
+    private final List<QwirklePlacement> playView = Collections.unmodifiableList(play);
+    // the undo stack -- the lines through each pushed piece, as of when it was pushed
+    private final List<QwirkleLine> horizontals = new ArrayList<>(), verticals = new ArrayList<>();
+    // scratch space for legality checks
+    private final QwirkleLine[] neighbors = new QwirkleLine[4];
+    private long zobristHash;
+
+    public QwirkleSearchBoard(QwirkleBoard board) {
+        this.board = (board instanceof QwirkleBoardImpl) ? (QwirkleBoardImpl) board : new QwirkleBoardImpl(board);
+        this.zobristHash = this.board.getZobristHash();
+    }
+
+    /** The board we started from, without any of the pushed pieces. */
+    public QwirkleBoard getBoard() { return board; }
+
+    /** The pieces pushed so far, in order. */
+    public List<QwirklePlacement> getPlay() { return playView; }
+
+    public int getDepth() { return play.size(); }
+
+    /** The Zobrist hash of the board with the pushed pieces on it -- see {@link QwirkleBoard#getZobristHash}. */
+    public long getZobristHash() { return zobristHash; }
+
+    /** Add a piece to the board. It must be legal on its own -- see {@link #isLegal}. */
+    public void push(QwirklePlacement placement) {
+        if (!isLegal(placement))
+            throw new IllegalStateException("Not a legal placement: " + placement);
+        int x = placement.getX(), y = placement.getY();
+        QwirkleSettings settings = board.getSettings();
+        horizontals.add(QwirkleBoardImpl.join(getLine(x - 1, y, true), placement, getLine(x + 1, y, true), settings));
+        verticals.add(QwirkleBoardImpl.join(getLine(x, y - 1, false), placement, getLine(x, y + 1, false), settings));
+        play.add(placement);
+        zobristHash ^= QwirkleBoardImpl.zobristKey(placement, board.getSettings());
+    }
+
+    /** Push all of <tt>play</tt>, in an order where each piece is legal on its own.
+     *  @return true if there is such an order; if there isn't, pushes nothing and returns false */
+    public boolean pushAll(Collection<QwirklePlacement> play) {
+        // try them in board order, so that the result doesn't depend on hash codes
+        Set<QwirklePlacement> remaining = new Placements(play);
+        if (remaining.size() != play.size())
+            throw new IllegalArgumentException
+                    ("Duplicate placements: " + play);
+        int depth = getDepth();
+        // find an order that works, by playing them one at a time
+        while (!remaining.isEmpty()) {
+            // look for a piece that can be played next
+            QwirklePlacement chosen = null;
+            for (QwirklePlacement place : remaining) {
+                if (isLegal(place)) {
+                    chosen = place;
+                    break;
+                }
+            }
+            if (chosen == null) {
+                popTo(depth);
+                return false;
+            }
+            remaining.remove(chosen);
+            push(chosen);
+        }
+        return true;
+    }
+
+    /** Pop pieces until only <tt>depth</tt> are left. */
+    public void popTo(int depth) {
+        while (getDepth() > depth)
+            pop();
+    }
+
+    /** Take back the most recently pushed piece. */
+    public QwirklePlacement pop() {
+        if (play.isEmpty())
+            throw new IllegalStateException("Nothing to pop.");
+        int last = play.size() - 1;
+        horizontals.remove(last);
+        verticals.remove(last);
+        QwirklePlacement result = play.remove(last);
+        zobristHash ^= QwirkleBoardImpl.zobristKey(result, board.getSettings());
+        return result;
+    }
+
+    /** The piece at (x, y), including pushed pieces. */
+    public QwirklePlacement getPlacement(int x, int y) {
+        for (int i = play.size() - 1; i >= 0; --i)
+            if (play.get(i).getLocation().equals(x, y))
+                return play.get(i);
+        return board.getPlacement(x, y);
+    }
+
+    /** The line through (x, y) in one direction, including pushed pieces, or null if it's empty. */
+    private QwirkleLine getLine(int x, int y, boolean horizontal) {
+        QwirkleLocation location = QwirkleLocation.of(x, y);
+        List<QwirkleLine> pushed = horizontal ? horizontals : verticals;
+        // lines only grow, so the most recent one that contains this spot is current
+        for (int i = pushed.size() - 1; i >= 0; --i)
+            if (pushed.get(i).contains(location))
+                return pushed.get(i);
+        return board.getLine(location, horizontal);
+    }
+
+    /** Is it legal to add <tt>placement</tt> to the board as it is now, on its own? Doesn't check
+     *  whether it lines up with the other pushed pieces -- for that, see {@link #getLegalPlacements}. */
+    public boolean isLegal(QwirklePlacement placement) {
+        int x = placement.getX(), y = placement.getY();
+        if (getPlacement(x, y) != null)
+            return false;
+        // first piece on the board? Always okay.
+        if (board.size() == 0 && play.isEmpty())
+            return true;
+        int n = 0;
+        n = addIfPresent(getLine(x - 1, y, true), n);
+        n = addIfPresent(getLine(x + 1, y, true), n);
+        n = addIfPresent(getLine(x, y - 1, false), n);
+        n = addIfPresent(getLine(x, y + 1, false), n);
+        return QwirkleBoardImpl.isLegal(placement, neighbors, n);
+    }
+
+    private int addIfPresent(QwirkleLine line, int n) {
+        if (line != null)
+            neighbors[n++] = line;
+        return n;
+    }
+
+    /** Where can <tt>piece</tt> legally extend the pushed pieces into a bigger play?
+     *  If nothing has been pushed, anywhere it is legal on the board. */
+    public Collection<QwirklePlacement> getLegalPlacements(QwirklePiece piece) {
+        if (play.isEmpty())
+            return board.getLegalPlacements(piece);
+        List<QwirklePlacement> result = new ArrayList<>(4);
+        QwirklePlacement last = play.get(play.size() - 1);
+        // a play has to be a single line with no gaps, so only the ends of its line are candidates
+        boolean horizontal = play.size() == 1 || play.get(0).getY() == last.getY();
+        boolean vertical = play.size() == 1 || play.get(0).getX() == last.getX();
+        if (horizontal)
+            addEnds(piece, last, horizontals.get(play.size() - 1), true, result);
+        if (vertical)
+            addEnds(piece, last, verticals.get(play.size() - 1), false, result);
+        return result;
+    }
+
+    /** Add the legal placements of <tt>piece</tt> at the ends of <tt>line</tt>, which runs through
+     *  <tt>last</tt>, the most recently pushed piece. */
+    private void addEnds(QwirklePiece piece, QwirklePlacement last, QwirkleLine line,
+                         boolean horizontal, List<QwirklePlacement> result)
+    {
+        // a line of 1 has 4 ends -- we only want the ones in this direction
+        List<QwirkleLocation> ends = (line.size() > 1) ? line.getEnds()
+                : horizontal ? Arrays.asList(last.getLocation().getLeft(), last.getLocation().getRight())
+                : Arrays.asList(last.getLocation().getBelow(), last.getLocation().getAbove());
+        for (QwirkleLocation end : ends) {
+            QwirklePlacement candidate = QwirklePlacement.of(piece, end);
+            if (isLegal(candidate))
+                result.add(candidate);
+        }
+    }
+
+    /** The score of the pushed pieces, as a single play. */
+    public int getScore() {
+        List<QwirkleLine> lines = new ArrayList<>();
+        for (int i = 0; i < play.size(); ++i) {
+            QwirklePlacement p = play.get(i);
+            addIfAbsent(getLine(p.getX(), p.getY(), true), lines);
+            addIfAbsent(getLine(p.getX(), p.getY(), false), lines);
+        }
+        return QwirkleBoardImpl.score(lines, play.size());
+    }
+
+    // pieces in the same play share their lines -- the very same instances
+    private static void addIfAbsent(QwirkleLine line, List<QwirkleLine> lines) {
+        for (QwirkleLine l : lines)
+            if (l == line)
+                return;
+        lines.add(line);
+    }
+
+    @Override
+    public String toString() {
+        return "Search board: " + play + " on " + board;
+    }
+}
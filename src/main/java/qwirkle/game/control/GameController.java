@@ -2,7 +2,6 @@ package qwirkle.game.control;
 
 import com.google.common.eventbus.EventBus;
 import qwirkle.game.base.*;
-import qwirkle.game.base.impl.QwirkleBoardImpl;
 import qwirkle.game.event.*;
 
 import java.util.*;
@@ -175,7 +174,7 @@ public class GameController {
 
         // set up new game
         this.deck.clear();
-        setBoard(new QwirkleBoardImpl(settings));
+        setBoard(settings.createBoard());
         annotated = new AnnotatedGame(bus);
         this.deck.addAll(settings.generate());
 
@@ -214,7 +213,7 @@ public class GameController {
         // figure out who has the best initial play
         synchronized (playerHands) {
             for (QwirklePlayer p : playerHands.keySet()) {
-                int matches = QwirkleKit.countMatches(getHand(p));
+                int matches = QwirkleKit.countMatches(getHand(p), settings);
                 if (matches > max) {
                     max = matches;
                     best = p;
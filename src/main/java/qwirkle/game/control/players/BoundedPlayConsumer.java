@@ -0,0 +1,8 @@
+package qwirkle.game.control.players;
+
+/** A {@link PlayConsumer} that only wants plays that score well enough -- so that whatever finds
+ *  them can skip the ones that couldn't (branch and bound), and try the most promising ones first. */
+public interface BoundedPlayConsumer extends PlayConsumer {
+    /** The lowest score a play can have and still be wanted. Never goes down. */
+    int getMinScore();
+}
@@ -0,0 +1,570 @@
+package qwirkle.game.control.players;
+
+import qwirkle.game.base.*;
+import qwirkle.util.Stopwatch;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Finds every play a hand can make on a board a line at a time, rather than piece by piece
+ *  like {@link PlayerKit#searchAllPossiblePlays}. A play is some of the hand's pieces that share a
+ *  color or a shape, laid in a row or column of empty spots that -- together with the pieces
+ *  already between and beside them -- make one unbroken run that touches the board. So:
+ *  <ol>
+ *      <li>the groups of pieces that could make a line are bitmasks of the hand: subsets of
+ *      the pieces of each color, and of the pieces of each shape;</li>
+ *      <li>the places a group of <i>k</i> could go are windows of <i>k</i> empty spots in a row
+ *      or column, including at least one spot next to a piece;</li>
+ *      <li>and the orders they could go in are the ones where every piece fits the line crossing its spot.</li>
+ *  </ol>
+ *  Each play comes up exactly once, so nothing has to be de-duplicated, and it can be handed
+ *  straight to a {@link PlayConsumer} -- with its score, which falls out of the same bitmasks.
+ *  The plays are the same as the search finds, and built the same way (see {@link PlayerKit#newPlay}),
+ *  so players choose the same moves.
+ *
+ *  <p>Can make the plays with the threads of a {@link ForkJoinPool}: once the candidates -- a group
+ *  of pieces in a window -- have been found, which is quick, the threads take turns taking the next
+ *  one, and pass the plays they make to the consumer one at a time. So the consumer needn't be thread-safe.</p>
+ *
+ *  <p>Handles ordinary games -- at least two colors and two shapes, and a hand whose pieces are
+ *  all in the game, on a board whose colors are. See {@link #findAllPossiblePlays}.</p> */
+public class LinePlayGenerator {
+    private final QwirkleBoard board;
+    private final int nColors, nShapes;
+    // the different kinds of pieces in the hand -- the first of each, if there are duplicates
+    private final QwirklePiece[] pieces;
+    // each piece's color (by index in the settings) and shape (by ordinal), as a bit
+    private final long[] colorBits, shapeBits;
+    private final boolean includeShorties;
+    private final Stopwatch w;
+    private final long maxMillis;
+    // a copy of the board, with room around it for plays -- quicker to look things up in
+    private final QwirklePlacement[] cells;
+    private final int xMin, yMin, width, height;
+    // which pieces fit in a spot, considering only the line crossing it -- by direction of play
+    private final Crossing[] horizontalCrossings, verticalCrossings;
+    private final PlayConsumer consumer;
+    // if the consumer only wants plays that score well enough, what it wants and the plays that might be it
+    private final BoundedPlayConsumer bounded;
+    // the threads that make plays, or null to make them in this one
+    private final ForkJoinPool pool;
+    // collected first, rather than arranged as they're found, if bounded or in parallel
+    private final List<Candidate> candidates;
+    // shared by the threads -- the consumer's minimum score is copied after each play, so that checking
+    // it doesn't have to wait for the lock
+    private volatile boolean outOfTime;
+    private volatile int nPlays, minScore = Integer.MIN_VALUE;
+
+    private LinePlayGenerator(QwirkleBoard board, QwirklePiece[] pieces, boolean includeShorties,
+                              Stopwatch w, long maxMillis, ForkJoinPool pool, PlayConsumer consumer)
+    {
+        this.board = board;
+        QwirkleSettings settings = board.getSettings();
+        this.nColors = settings.getColors().size();
+        this.nShapes = settings.getShapes().size();
+        this.pieces = pieces;
+        this.colorBits = new long[pieces.length];
+        this.shapeBits = new long[pieces.length];
+        for (int i = 0; i < pieces.length; ++i) {
+            colorBits[i] = 1L << settings.getColorIndex(pieces[i].getColor());
+            shapeBits[i] = 1L << pieces[i].getShape().ordinal();
+        }
+        this.includeShorties = includeShorties;
+        this.w = w;
+        this.maxMillis = maxMillis;
+        this.consumer = consumer;
+        this.bounded = consumer instanceof BoundedPlayConsumer ? (BoundedPlayConsumer) consumer : null;
+        this.pool = pool;
+        this.candidates = bounded == null && pool == null ? null : new ArrayList<Candidate>();
+        if (bounded != null)
+            this.minScore = bounded.getMinScore();
+
+        // plays reach a little past the board: a spot beyond a window of all our pieces, and the one past that
+        int margin = pieces.length + 3;
+        boolean empty = board.size() == 0;
+        this.xMin = (empty ? 0 : board.getXMin()) - margin;
+        this.yMin = (empty ? 0 : board.getYMin()) - margin;
+        this.width = (empty ? 0 : board.getXMax()) + margin - xMin + 1;
+        this.height = (empty ? 0 : board.getYMax()) + margin - yMin + 1;
+        this.cells = new QwirklePlacement[width * height];
+        for (QwirklePlacement placement : board.getPlacements())
+            cells[index(placement.getX(), placement.getY())] = placement;
+        this.horizontalCrossings = new Crossing[cells.length];
+        this.verticalCrossings = new Crossing[cells.length];
+    }
+
+    /** Find all possible plays on this board for this hand -- see
+     *  {@link PlayerKit#findAllPossiblePlays(QwirkleBoard, List, boolean, Stopwatch, long)}.
+     *  @return the plays, or null if the game or the hand is too unusual for this approach, in
+     *  which case {@link PlayerKit#searchAllPossiblePlays} still works */
+    public static Set<Set<QwirklePlacement>> findAllPossiblePlays
+            (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties, Stopwatch w, long maxMillis)
+    {
+        return findAllPossiblePlays(board, hand, includeShorties, w, maxMillis, null);
+    }
+
+    /** Find all possible plays on this board for this hand, with the threads of <tt>pool</tt> --
+     *  see {@link #findAllPossiblePlays(QwirkleBoard, List, boolean, Stopwatch, long)}.
+     *  @param pool the threads to make plays with, or null to make them in this one */
+    public static Set<Set<QwirklePlacement>> findAllPossiblePlays
+            (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties, Stopwatch w, long maxMillis,
+             ForkJoinPool pool)
+    {
+        final Set<Set<QwirklePlacement>> result = new HashSet<>();
+        boolean generated = generate(board, hand, includeShorties, w, maxMillis, pool, new PlayConsumer() {
+            @Override
+            public void accept(Set<QwirklePlacement> play, int score) {
+                result.add(play);
+            }
+        });
+        return generated ? result : null;
+    }
+
+    /** Find all possible plays on this board for this hand, and pass each one to <tt>consumer</tt>, with its score.
+     *  @return false if the game or the hand is too unusual for this approach, in which case
+     *  nothing was passed to <tt>consumer</tt> -- see {@link #findAllPossiblePlays} */
+    public static boolean generate(QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
+                                   Stopwatch w, long maxMillis, PlayConsumer consumer)
+    {
+        return generate(board, hand, includeShorties, w, maxMillis, null, consumer);
+    }
+
+    /** Find all possible plays on this board for this hand with the threads of <tt>pool</tt>, and pass
+     *  each one to <tt>consumer</tt>, with its score -- from one thread at a time. See
+     *  {@link #generate(QwirkleBoard, List, boolean, Stopwatch, long, PlayConsumer)}.
+     *  @param pool the threads to make plays with, or null to make them in this one */
+    public static boolean generate(QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
+                                   Stopwatch w, long maxMillis, ForkJoinPool pool, PlayConsumer consumer)
+    {
+        QwirkleSettings settings = board.getSettings();
+        // with one color or one shape, a single piece can complete a line; with more than 64 colors, masks don't fit
+        if (settings.getColors().size() < 2 || settings.getShapes().size() < 2 || settings.getColors().size() > Long.SIZE)
+            return false;
+        Set<QwirklePiece> unique = new LinkedHashSet<>(hand);
+        if (unique.size() >= Integer.SIZE)
+            return false;
+        for (QwirklePiece piece : unique)
+            if (settings.getPieceCode(piece) < 0)
+                return false;
+        // the board's pieces need a color bit too
+        for (QwirklePlacement placement : board.getPlacements())
+            if (settings.getColorIndex(placement.getColor()) < 0)
+                return false;
+        new LinePlayGenerator(board, unique.toArray(new QwirklePiece[unique.size()]),
+                includeShorties, w, maxMillis, pool, consumer).generate();
+        return true;
+    }
+
+    private void generate() {
+        List<List<Integer>> groups = findGroups();
+        List<QwirkleLocation> frontier = findFrontier();
+        windows:
+        for (int k = 1; k < groups.size(); ++k)
+            if (!groups.get(k).isEmpty())
+                for (boolean horizontal : new boolean[] { true, false }) {
+                    if (k == 1 && !horizontal)
+                        continue; // a single piece is a single spot either way
+                    for (QwirkleLocation anchor : frontier)
+                        for (int j = 0; j < k; ++j) {
+                            // (looking for candidates is quick -- it's making plays that takes time)
+                            if (candidates == null && isOutOfTime())
+                                break windows;
+                            generate(horizontal, anchor, j, k, groups.get(k));
+                        }
+                }
+
+        if (candidates == null)
+            return; // already arranged
+        // branch and bound: the most promising first, until nothing left could be good enough
+        if (bounded != null)
+            Collections.sort(candidates, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate a, Candidate b) {
+                    return Integer.compare(b.bound, a.bound);
+                }
+            });
+        AtomicInteger next = new AtomicInteger();
+        if (pool == null)
+            arrangeFrom(next);
+        else
+            pool.invoke(new Arranger(next, pool.getParallelism() - 1));
+    }
+
+    /** Arrange candidates, taking the next one from <tt>next</tt> each time, until there are no more
+     *  -- or until the rest couldn't be good enough, since they're in order, or we're out of time. */
+    private void arrangeFrom(AtomicInteger next) {
+        for (int i = next.getAndIncrement(); i < candidates.size(); i = next.getAndIncrement()) {
+            Candidate candidate = candidates.get(i);
+            if (candidate.bound < minScore || (nPlays > 0 && isOutOfTime()))
+                break;
+            arrange(candidate);
+        }
+    }
+
+    /** Arranges candidates in one of the pool's threads, alongside <tt>helpers</tt> more. */
+    private class Arranger extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger next;
+        private final int helpers;
+
+        Arranger(AtomicInteger next, int helpers) {
+            this.next = next;
+            this.helpers = helpers;
+        }
+
+        @Override
+        protected void compute() {
+            List<Arranger> others = new ArrayList<>();
+            for (int i = 0; i < helpers; ++i)
+                others.add(new Arranger(next, 0));
+            for (Arranger other : others)
+                other.fork();
+            arrangeFrom(next);
+            for (Arranger other : others)
+                other.join();
+        }
+    }
+
+    /** Pass a play to the consumer -- from one thread at a time. */
+    private void accept(Set<QwirklePlacement> play, int score) {
+        synchronized (consumer) {
+            consumer.accept(play, score);
+            ++nPlays;
+            if (bounded != null)
+                minScore = bounded.getMinScore();
+        }
+    }
+
+    /** Have we used up our time? If so, we go with the plays we've found so far. */
+    private boolean isOutOfTime() {
+        if (!outOfTime && maxMillis >= 0 && w.getElapsed() >= maxMillis * 9 / 10)
+            outOfTime = true;
+        return outOfTime;
+    }
+
+    /** The groups of pieces that could form a line, by size: every single piece, and every
+     *  combination of two or more of the same color, or of the same shape. As bitmasks of {@link #pieces}. */
+    private List<List<Integer>> findGroups() {
+        List<List<Integer>> result = new ArrayList<>();
+        for (int k = 0; k <= pieces.length; ++k)
+            result.add(new ArrayList<Integer>());
+        for (int i = 0; i < pieces.length; ++i)
+            result.get(1).add(1 << i);
+        for (long[] bits : new long[][] { colorBits, shapeBits }) {
+            for (int i = 0; i < pieces.length; ++i) {
+                int all = 0;
+                for (int j = 0; j < pieces.length; ++j)
+                    if (bits[j] == bits[i])
+                        all |= 1 << j;
+                if (Integer.numberOfTrailingZeros(all) != i)
+                    continue; // already did this color (or shape)
+                for (int some = all; some != 0; some = (some - 1) & all)
+                    if (Integer.bitCount(some) >= 2)
+                        result.get(Integer.bitCount(some)).add(some);
+            }
+        }
+        return result;
+    }
+
+    /** The empty spots next to pieces -- every play covers at least one. On an empty board, just the middle. */
+    private List<QwirkleLocation> findFrontier() {
+        if (board.size() == 0)
+            return Collections.singletonList(QwirkleLocation.of(0, 0));
+        Set<QwirkleLocation> result = new LinkedHashSet<>();
+        for (QwirklePlacement placement : board.getPlacements())
+            for (QwirkleLocation neighbor : placement.getLocation().getNeighbors())
+                if (getPlacement(neighbor.getX(), neighbor.getY()) == null)
+                    result.add(neighbor);
+        return new ArrayList<>(result);
+    }
+
+    /** Where (x, y) is in {@link #cells}, or -1 if it's outside them. */
+    private int index(int x, int y) {
+        x -= xMin;
+        y -= yMin;
+        return x < 0 || x >= width || y < 0 || y >= height ? -1 : y * width + x;
+    }
+
+    private QwirklePlacement getPlacement(int x, int y) {
+        int i = index(x, y);
+        return i < 0 ? null : cells[i];
+    }
+
+    /** The placement in a row (if <tt>horizontal</tt>) or column. */
+    private QwirklePlacement getPlacement(boolean horizontal, int fixed, int along) {
+        return horizontal ? getPlacement(along, fixed) : getPlacement(fixed, along);
+    }
+
+    private boolean isOccupied(boolean horizontal, int fixed, int along) {
+        return getPlacement(horizontal, fixed, along) != null;
+    }
+
+    private boolean isFrontier(boolean horizontal, int fixed, int along) {
+        int x = horizontal ? along : fixed, y = horizontal ? fixed : along;
+        if (board.size() == 0)
+            return x == 0 && y == 0;
+        return getPlacement(x, y) == null
+                && (getPlacement(x - 1, y) != null || getPlacement(x + 1, y) != null
+                    || getPlacement(x, y - 1) != null || getPlacement(x, y + 1) != null);
+    }
+
+    /** Plays of <tt>k</tt> pieces in the window of <tt>k</tt> empty spots in which <tt>anchor</tt> is
+     *  spot number <tt>j</tt> -- as long as there's no earlier spot in the window next to a piece, in
+     *  which case that spot's anchor takes care of it. */
+    private void generate(boolean horizontal, QwirkleLocation anchor, int j, int k, List<Integer> groups) {
+        int fixed = horizontal ? anchor.getY() : anchor.getX(), start = horizontal ? anchor.getX() : anchor.getY();
+        // the window, skipping over pieces that are already there
+        int[] window = new int[k];
+        window[j] = start;
+        for (int i = j - 1, a = start; i >= 0; --i) {
+            do --a; while (isOccupied(horizontal, fixed, a));
+            if (isFrontier(horizontal, fixed, a))
+                return;
+            window[i] = a;
+        }
+        for (int i = j + 1, a = start; i < k; ++i) {
+            do ++a; while (isOccupied(horizontal, fixed, a));
+            window[i] = a;
+        }
+
+        // the pieces already in the run that the window makes, from one end to the other
+        int runStart = window[0], runEnd = window[k - 1];
+        while (isOccupied(horizontal, fixed, runStart - 1)) --runStart;
+        while (isOccupied(horizontal, fixed, runEnd + 1)) ++runEnd;
+        long colors = 0, shapes = 0;
+        int n = 0;
+        QwirkleSettings settings = board.getSettings();
+        for (int a = runStart; a <= runEnd; ++a) {
+            QwirklePlacement placement = getPlacement(horizontal, fixed, a);
+            if (placement != null) {
+                colors |= 1L << settings.getColorIndex(placement.getColor());
+                shapes |= 1L << placement.getShape().ordinal();
+                ++n;
+            }
+        }
+        if (n + k > Math.max(nColors, nShapes))
+            return;
+
+        Crossing[] crossings = null;
+        groups:
+        for (int group : groups) {
+            long groupColors = colors, groupShapes = shapes;
+            for (int left = group; left != 0; left &= left - 1) {
+                int i = Integer.numberOfTrailingZeros(left);
+                groupColors |= colorBits[i];
+                groupShapes |= shapeBits[i];
+            }
+            if (!isLine(groupColors, groupShapes, n + k))
+                continue;
+            if (crossings == null) {
+                crossings = new Crossing[k];
+                for (int i = 0; i < k; ++i)
+                    crossings[i] = getCrossing(horizontal, fixed, window[i]);
+            }
+            for (Crossing crossing : crossings)
+                if ((crossing.fits & group) == 0)
+                    continue groups; // nothing can go there
+            Candidate candidate = new Candidate(horizontal, fixed, window, crossings, group,
+                    groupColors, groupShapes, n + k, runStart, runEnd);
+            if (candidates != null)
+                candidates.add(candidate);
+            else if (isOutOfTime())
+                return;
+            else
+                arrange(candidate);
+        }
+    }
+
+    /** Some pieces that make a line in a window, and what they could score. */
+    private class Candidate {
+        final boolean horizontal;
+        final int fixed;
+        final int[] window;
+        final Crossing[] crossings;
+        final int group;
+        final long colors, shapes; // of the whole line, including the board's pieces
+        final int n, runStart, runEnd;
+        final int lineScore;
+        // the most the lines crossing each spot, and the ones after it, could score with these pieces
+        final int[] crossingBounds;
+        // the most the play could score: an upper bound for branch and bound
+        final int bound;
+
+        Candidate(boolean horizontal, int fixed, int[] window, Crossing[] crossings, int group,
+                  long colors, long shapes, int n, int runStart, int runEnd)
+        {
+            this.horizontal = horizontal;
+            this.fixed = fixed;
+            this.window = window;
+            this.crossings = crossings;
+            this.group = group;
+            this.colors = colors;
+            this.shapes = shapes;
+            this.n = n;
+            this.runStart = runStart;
+            this.runEnd = runEnd;
+            this.lineScore = n > 1 ? getScore(colors, shapes, n) : 0;
+            this.crossingBounds = new int[window.length + 1];
+            for (int i = window.length - 1; i >= 0; --i) {
+                int best = 0;
+                for (int left = group & crossings[i].fits; left != 0; left &= left - 1)
+                    best = Math.max(best, crossings[i].getScore(Integer.numberOfTrailingZeros(left)));
+                crossingBounds[i] = crossingBounds[i + 1] + best;
+            }
+            this.bound = Math.max(1, lineScore + crossingBounds[0]);
+        }
+    }
+
+    /** Pass the plays that <tt>candidate</tt> can make to the consumer -- unless we only want the
+     *  longest plays and there's a longer one. */
+    private void arrange(Candidate candidate) {
+        int k = candidate.window.length;
+        if (!includeShorties && canExtend(candidate.horizontal, candidate.fixed, candidate.runStart,
+                candidate.runEnd, candidate.group, candidate.colors, candidate.shapes, candidate.n,
+                k == 1 ? candidate.window[0] : 0, k == 1 ? candidate.crossings[0] : null))
+            return; // only the longest plays
+        arrange(candidate, candidate.group, 0, new QwirklePlacement[k], candidate.lineScore);
+    }
+
+    /** Put the pieces left in <tt>group</tt> into the candidate's spots, starting with spot <tt>i</tt>, in
+     *  every order where they fit the lines crossing their spots -- and, if the consumer only wants
+     *  plays that score well enough, could still score well enough.
+     *  @param score the score so far -- the main line, and the lines crossing the spots before <tt>i</tt> */
+    private void arrange(Candidate candidate, int group, int i, QwirklePlacement[] play, int score) {
+        if (Math.max(1, score + candidate.crossingBounds[i]) < minScore)
+            return; // can't be good enough
+        if (i == play.length) {
+            if (nPlays > 0 && isOutOfTime())
+                return;
+            // on the first turn, if you only played one piece, you get a point
+            accept(PlayerKit.newPlay(Arrays.asList(play)), score == 0 ? 1 : score);
+            return;
+        }
+        Crossing crossing = candidate.crossings[i];
+        int spot = candidate.window[i];
+        for (int left = group & crossing.fits; left != 0; left &= left - 1) {
+            int p = Integer.numberOfTrailingZeros(left);
+            play[i] = candidate.horizontal ? QwirklePlacement.of(pieces[p], spot, candidate.fixed)
+                    : QwirklePlacement.of(pieces[p], candidate.fixed, spot);
+            arrange(candidate, group & ~(1 << p), i + 1, play, score + crossing.getScore(p));
+        }
+    }
+
+    /** Could another piece from the hand be added to the play of <tt>group</tt> that makes the run from
+     *  <tt>runStart</tt> to <tt>runEnd</tt>? At either end, or -- if it's a single piece, whose
+     *  spot and <tt>crossing</tt> are given -- at either end of the line crossing it. */
+    private boolean canExtend(boolean horizontal, int fixed, int runStart, int runEnd, int group,
+                              long colors, long shapes, int n, int spot, Crossing crossing)
+    {
+        int others = ((1 << pieces.length) - 1) & ~group;
+        if (canExtendAt(horizontal, fixed, runStart - 1, -1, others, colors, shapes, n)
+                || canExtendAt(horizontal, fixed, runEnd + 1, 1, others, colors, shapes, n))
+            return true;
+        if (crossing != null) {
+            int single = Integer.numberOfTrailingZeros(group);
+            colors = crossing.colors | colorBits[single];
+            shapes = crossing.shapes | shapeBits[single];
+            return canExtendAt(!horizontal, spot, crossing.start - 1, -1, others, colors, shapes, crossing.n + 1)
+                    || canExtendAt(!horizontal, spot, crossing.end + 1, 1, others, colors, shapes, crossing.n + 1);
+        }
+        return false;
+    }
+
+    /** Could one of <tt>others</tt> go in the empty spot at <tt>end</tt>, just past a line of <tt>n</tt>
+     *  pieces -- joining it to whatever is beyond, in the direction of <tt>step</tt>? */
+    private boolean canExtendAt(boolean horizontal, int fixed, int end, int step, int others,
+                                long colors, long shapes, int n)
+    {
+        QwirkleSettings settings = board.getSettings();
+        for (int a = end + step; isOccupied(horizontal, fixed, a); a += step) {
+            QwirklePlacement placement = getPlacement(horizontal, fixed, a);
+            colors |= 1L << settings.getColorIndex(placement.getColor());
+            shapes |= 1L << placement.getShape().ordinal();
+            ++n;
+        }
+        for (int left = others & getCrossing(horizontal, fixed, end).fits; left != 0; left &= left - 1) {
+            int i = Integer.numberOfTrailingZeros(left);
+            if (isLine(colors | colorBits[i], shapes | shapeBits[i], n + 1))
+                return true;
+        }
+        return false;
+    }
+
+    /** Could <tt>n</tt> pieces with these colors and shapes be a line?
+     *  The same rules as {@link QwirkleLine}. */
+    private boolean isLine(long colors, long shapes, int n) {
+        if (n == 1)
+            return true;
+        if (Long.bitCount(colors) == 1)
+            return Long.bitCount(shapes) == n && n <= nShapes;
+        else
+            return Long.bitCount(shapes) == 1 && Long.bitCount(colors) == n && n <= nColors;
+    }
+
+    /** What a line of <tt>n</tt> pieces, with these colors and shapes, scores.
+     *  The same as {@link QwirkleLine#getScore()}. */
+    private int getScore(long colors, long shapes, int n) {
+        if (Long.bitCount(colors) == 1 && n == nShapes)
+            return n + nShapes;
+        if (Long.bitCount(shapes) == 1 && n == nColors)
+            return n + nColors;
+        return n;
+    }
+
+    /** The line crossing an empty spot in a play's row (if <tt>horizontal</tt>) or column.
+     *  Threads making plays at once may both work one out and cache it; either copy will do,
+     *  since its fields are final. */
+    private Crossing getCrossing(boolean horizontal, int fixed, int along) {
+        Crossing[] cache = horizontal ? horizontalCrossings : verticalCrossings;
+        int x = horizontal ? along : fixed, y = horizontal ? fixed : along, i = index(x, y);
+        Crossing result = i < 0 ? null : cache[i];
+        if (result == null) {
+            result = new Crossing(x, y, !horizontal);
+            if (i >= 0)
+                cache[i] = result;
+        }
+        return result;
+    }
+
+    /** The pieces next to an empty spot in one direction, and which of our pieces fit with them. */
+    private class Crossing {
+        private final long colors, shapes;
+        private final int n;
+        private final int fits; // bitmask of pieces
+        private final int start, end; // the extent of the line, including the spot
+
+        Crossing(int x, int y, boolean horizontal) {
+            int fixed = horizontal ? y : x, spot = horizontal ? x : y, start = spot, end = spot;
+            long colors = 0, shapes = 0;
+            int n = 0;
+            QwirkleSettings settings = board.getSettings();
+            for (int step = -1; step <= 1; step += 2)
+                for (int a = spot + step; isOccupied(horizontal, fixed, a); a += step) {
+                    QwirklePlacement placement = getPlacement(horizontal, fixed, a);
+                    colors |= 1L << settings.getColorIndex(placement.getColor());
+                    shapes |= 1L << placement.getShape().ordinal();
+                    ++n;
+                    start = Math.min(start, a);
+                    end = Math.max(end, a);
+                }
+            this.start = start;
+            this.end = end;
+            this.colors = colors;
+            this.shapes = shapes;
+            this.n = n;
+            int fits = 0;
+            for (int i = 0; i < pieces.length; ++i)
+                if (n == 0 || isLine(colors | colorBits[i], shapes | shapeBits[i], n + 1))
+                    fits |= 1 << i;
+            this.fits = fits;
+        }
+
+        /** What this line scores if piece <tt>p</tt> joins it -- nothing, if it has no pieces yet. */
+        int getScore(int p) {
+            return n == 0 ? 0 : LinePlayGenerator.this.getScore(colors | colorBits[p], shapes | shapeBits[p], n + 1);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package qwirkle.game.control.players;
 
-import com.google.common.collect.Multimap;
 import qwirkle.game.base.*;
 import qwirkle.game.base.QwirkleAI;
 import qwirkle.util.Stopwatch;
@@ -36,12 +35,11 @@ public class MaxAI extends TimeLimitAI {
     @Override
     public Collection<QwirklePlacement> play(QwirkleBoard board, List<QwirklePiece> hand) {
         Stopwatch w = new Stopwatch();
-        Multimap<Integer, Set<QwirklePlacement>> moves
-                = PlayerKit.rankAllMoves(board, hand, w, getMaxMillis(), true, false);
-        int bestScore = moves.keySet().iterator().next();
-        w.mark("finished: " + bestScore);
+        RankedPlays best = new RankedPlays.Best();
+        PlayerKit.rankAllMoves(board, hand, w, getMaxMillis(), true, false, isParallel(), best);
+        w.mark("finished: " + best.getBestScore());
         setLastMoveWatch(w);
-        return moves.get(bestScore).iterator().next(); // randomly choose one of the best
+        return best.getBest(); // not random: the highest score, then the first by RankedPlays.PLAY_ORDER
     }
 
     /** Keep the largest group; discard the rest. Discard duplicates. */
@@ -49,29 +47,39 @@ public class MaxAI extends TimeLimitAI {
     public Collection<QwirklePiece> discard(QwirkleBoard board, List<QwirklePiece> hand) {
         if (hand.isEmpty())
             return null;
-        // sort by shape and color
-        Map<QwirkleShape, Set<QwirklePiece>> byShape = new HashMap<>();
-        Map<QwirkleColor, Set<QwirklePiece>> byColor = new HashMap<>();
+        // count the different kinds of pieces of each shape and color
+        QwirkleSettings settings = board.getSettings();
+        int nShapes = settings.getShapes().size();
+        int[] byShape = new int[nShapes], byColor = new int[settings.getColors().size()];
+        boolean[] seen = new boolean[settings.getKindCount()];
         for (QwirklePiece piece : hand) {
-            if (!byShape.containsKey(piece.getShape()))
-                byShape.put(piece.getShape(), new HashSet<QwirklePiece>());
-            if (!byColor.containsKey(piece.getColor()))
-                byColor.put(piece.getColor(), new HashSet<QwirklePiece>());
-            byShape.get(piece.getShape()).add(piece);
-            byColor.get(piece.getColor()).add(piece);
-        }
-        // order: largest first
-        Set<Set<QwirklePiece>> groupings = new TreeSet<>(new Comparator<Set<QwirklePiece>>() {
-            @Override public int compare(Set<QwirklePiece> a, Set<QwirklePiece> b) {
-                return b.size() - a.size();
+            int code = settings.getPieceCode(piece);
+            if (code >= 0 && !seen[code]) {
+                seen[code] = true;
+                ++byShape[code % nShapes];
+                ++byColor[code / nShapes];
             }
-        });
-        groupings.addAll(byShape.values());
-        groupings.addAll(byColor.values());
-        Set<QwirklePiece> keep = groupings.iterator().next();
-        Set<QwirklePiece> discard = new HashSet<>(hand);
-        if (keep.size() > 1)
-            discard.removeAll(keep);
+        }
+        // the largest group -- a shape, or else a color
+        int keepShape = -1, keepColor = -1, max = 0;
+        for (int i = 0; i < byShape.length; ++i)
+            if (byShape[i] > max) { max = byShape[i]; keepShape = i; }
+        for (int i = 0; i < byColor.length; ++i)
+            if (byColor[i] > max) { max = byColor[i]; keepShape = -1; keepColor = i; }
+        // discard one of each kind of piece, except the ones in the group
+        Arrays.fill(seen, false);
+        List<QwirklePiece> discard = new ArrayList<>();
+        for (QwirklePiece piece : hand) {
+            int code = settings.getPieceCode(piece);
+            if (code >= 0 && seen[code])
+                continue; // a duplicate
+            boolean keep = max > 1 && code >= 0
+                    && (code % nShapes == keepShape || code / nShapes == keepColor);
+            if (!keep)
+                discard.add(piece);
+            if (code >= 0)
+                seen[code] = true;
+        }
         return discard;
     }
 
@@ -0,0 +1,12 @@
+package qwirkle.game.control.players;
+
+import qwirkle.game.base.QwirklePlacement;
+
+import java.util.Set;
+
+/** Receives plays, and what they score, one at a time as they are found --
+ *  see {@link PlayerKit#rankAllMoves(qwirkle.game.base.QwirkleBoard, java.util.List, qwirkle.util.Stopwatch,
+ *  long, boolean, boolean, boolean, PlayConsumer)}. Each play is a different one. */
+public interface PlayConsumer {
+    void accept(Set<QwirklePlacement> play, int score);
+}
@@ -5,9 +5,13 @@ import com.google.common.collect.TreeMultimap;
 import qwirkle.game.base.QwirkleBoard;
 import qwirkle.game.base.QwirklePiece;
 import qwirkle.game.base.QwirklePlacement;
+import qwirkle.game.base.impl.QwirkleSearchBoard;
 import qwirkle.util.Stopwatch;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /** Helper functions for players. */
 public class PlayerKit {
@@ -17,51 +21,67 @@ public class PlayerKit {
             System.out.println(PlayerKit.class.getSimpleName() + ": " + msg);
     }
 
-    private static Comparator setComparator = new Comparator<Set<Comparable>>() {
-        @Override
-        public int compare(Set<Comparable> a, Set<Comparable> b) {
-            //noinspection unchecked
-            if (a.size() == b.size()) {
-                Iterator<Comparable> ia = a.iterator(), ib = b.iterator();
-                while (ia.hasNext() && ib.hasNext()) {
-                    //noinspection unchecked
-                    int c = ia.next().compareTo(ib.next());
-                    if (c != 0)
-                        return c;
-                }
-                // one of them finished
-                if (ia.hasNext()) return 1;
-                else if (ib.hasNext()) return -1;
-                else return 0; // all elements matched
-            } else {
-                return a.size() - b.size();
-            }
-        }
-    };
-
-    private static Comparator hashComparator = new Comparator() {
-        @Override
-        public int compare(Object a, Object b) {
-            int ha = a == null ? 0 : a.hashCode(), hb = b == null ? 0 : b.hashCode();
-            return ha - hb;
-        }
-    };
+    /** Find all possible plays on this board for this hand, in this thread.
+     *  See {@link #findAllPossiblePlays(QwirkleBoard, List, boolean, Stopwatch, long, boolean)}. */
+    public static Set<Set<QwirklePlacement>> findAllPossiblePlays
+        (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
+         Stopwatch w, long maxMillis)
+    {
+        return findAllPossiblePlays(board, hand, includeShorties, w, maxMillis, false);
+    }
 
-    /** Find all possible plays on this board for this hand.
+    /** Find all possible plays on this board for this hand. Usually a line at a time, with a
+     *  {@link LinePlayGenerator}; otherwise -- in a game too unusual for that -- by searching piece
+     *  by piece, the way {@link #searchAllPossiblePlays} does. The same plays either way.
      * @param includeShorties if true, include plays that are suboptimal because they're short
      *                         (that is, their supersets are also present)
      * @param w a stopwatch that tracks total elapsed time -- add comments using internal info
-     * @param maxMillis the maximum length of time to take (approximate) if non-positive, no limit */
+     * @param maxMillis the maximum length of time to take (approximate) if non-positive, no limit
+     * @param parallel if true, split the search up among the threads of a pool shared by all
+     *                 players -- see {@link LinePlayGenerator} and {@link PlaysTask}. The same plays either way. */
     public static Set<Set<QwirklePlacement>> findAllPossiblePlays
         (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
-         Stopwatch w, long maxMillis)
+         Stopwatch w, long maxMillis, boolean parallel)
+    {
+        Set<Set<QwirklePlacement>> result = LinePlayGenerator.findAllPossiblePlays
+                (board, hand, includeShorties, w, maxMillis, parallel ? SearchPool.POOL : null);
+        if (result != null) {
+            w.mark("generated " + result.size() + " plays");
+            return result;
+        }
+        return searchAllPossiblePlays(board, hand, includeShorties, w, maxMillis, parallel);
+    }
+
+    /** Find all possible plays on this board for this hand by trying each piece everywhere it
+     *  can go, then each other piece everywhere it can go after that, and so on. Works for any
+     *  game, but slower than {@link LinePlayGenerator}, which usually does the job instead.
+     *  See {@link #findAllPossiblePlays(QwirkleBoard, List, boolean, Stopwatch, long, boolean)}. */
+    public static Set<Set<QwirklePlacement>> searchAllPossiblePlays
+        (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
+         Stopwatch w, long maxMillis, boolean parallel)
+    {
+        return searchAllPossiblePlays(board, hand, includeShorties, w, maxMillis, parallel ? SearchPool.POOL : null);
+    }
+
+    /** Search for all possible plays with the threads of <tt>pool</tt>, or in this thread if it's null. */
+    private static Set<Set<QwirklePlacement>> searchAllPossiblePlays
+        (QwirkleBoard board, List<QwirklePiece> hand, boolean includeShorties,
+         Stopwatch w, long maxMillis, ForkJoinPool pool)
     {
-        Set<Set<QwirklePlacement>> result = new HashSet<>();
-        Set<Set<QwirklePlacement>> prunes = includeShorties
-                ? result : new HashSet<Set<QwirklePlacement>>();
+        boolean parallel = pool != null;
+        Set<Set<QwirklePlacement>> result = parallel
+                ? Collections.newSetFromMap(new ConcurrentHashMap<Set<QwirklePlacement>, Boolean>())
+                : new HashSet<Set<QwirklePlacement>>();
+        Set<Set<QwirklePlacement>> prunes = includeShorties ? result
+                : parallel ? Collections.newSetFromMap(new ConcurrentHashMap<Set<QwirklePlacement>, Boolean>())
+                : new HashSet<Set<QwirklePlacement>>();
         HashSet<QwirklePiece> toPlay = new HashSet<>(hand);
-        HashSet<QwirklePlacement> played = new HashSet<>();
-        buildAllPossiblePlays(board, played, toPlay, result, prunes, w, maxMillis);
+        if (parallel)
+            pool.invoke(new PlaysTask(board, Collections.<QwirklePlacement>emptyList(),
+                    toPlay, result, prunes, w, maxMillis));
+        else
+            buildAllPossiblePlays(new QwirkleSearchBoard(board), new HashSet<QwirklePlacement>(),
+                    toPlay, result, prunes, w, maxMillis);
         w.mark("found " + result.size() + " plays" + (includeShorties ? "" : " (pruned " + prunes.size() + ")"));
         return result;
 //        long end = System.currentTimeMillis();
@@ -69,18 +89,103 @@ public class PlayerKit {
 //        System.out.println(getName() + " found " + plays.size() + " moves in " + (end - start) + " ms.");
     }
 
-    // TODO thread collection of all possible plays
+    /** A copy of a play, as a set that iterates the same way for the same placements, no matter
+     *  what order they were played in: a HashSet (see {@link #buildAllPossiblePlays}) with the
+     *  placements added in their natural order. Since ties between moves that score the same are
+     *  broken by iteration order (see {@link #rankAllMoves}), this keeps the choice from depending
+     *  on how the play was found. */
+    static HashSet<QwirklePlacement> newPlay(Collection<QwirklePlacement> play) {
+        QwirklePlacement[] sorted = play.toArray(new QwirklePlacement[play.size()]);
+        Arrays.sort(sorted);
+        return new HashSet<>(Arrays.asList(sorted));
+    }
+
+    /** The threads that parallel searches share -- one per core, created when first needed. */
+    static class SearchPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /** A branch of a parallel search for plays -- what {@link #buildAllPossiblePlays} does, but the first
+     *  {@link #FORK_DEPTH} levels of the tree are split into tasks for a fork/join pool, which
+     *  share their results and the branches they've considered through concurrent sets.
+     *  Below that, each task searches its own branch with its own board, in one thread. */
+    private static class PlaysTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // deep enough to make plenty of tasks -- a piece and where it goes, then a second one
+        private static final int FORK_DEPTH = 2;
+
+        private final QwirkleBoard board;
+        private final List<QwirklePlacement> path; // the play so far, in the order it was made
+        private final Set<QwirklePiece> toPlay;
+        private final Set<Set<QwirklePlacement>> plays, prunes;
+        private final Stopwatch w;
+        private final long maxMillis;
+
+        PlaysTask(QwirkleBoard board, List<QwirklePlacement> path, Set<QwirklePiece> toPlay,
+                  Set<Set<QwirklePlacement>> plays, Set<Set<QwirklePlacement>> prunes,
+                  Stopwatch w, long maxMillis)
+        {
+            this.board = board;
+            this.path = path;
+            this.toPlay = toPlay;
+            this.plays = plays;
+            this.prunes = prunes;
+            this.w = w;
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        protected void compute() {
+            QwirkleSearchBoard search = new QwirkleSearchBoard(board);
+            for (QwirklePlacement placement : path)
+                search.push(placement);
+            if (path.size() >= FORK_DEPTH) {
+                buildAllPossiblePlays(search, new HashSet<>(path), toPlay, plays, prunes, w, maxMillis);
+                return;
+            }
+
+            // the same as buildAllPossiblePlays(), except that each branch is a new task
+            boolean leaf = false;
+            List<PlaysTask> branches = new ArrayList<>();
+            for (QwirklePiece piece : toPlay) {
+                Collection<QwirklePlacement> places = search.getLegalPlacements(piece);
+                if (!places.isEmpty())
+                    leaf = true;
+                if (maxMillis < 0 || w.getElapsed() < maxMillis * 9 / 10)
+                    for (QwirklePlacement place : places) {
+                        List<QwirklePlacement> longer = new ArrayList<>(path);
+                        longer.add(place);
+                        HashSet<QwirklePlacement> played = newPlay(longer);
+                        if (prunes.add(played)) { // nobody else has taken this branch
+                            HashSet<QwirklePiece> rest = new HashSet<>(toPlay);
+                            rest.remove(place.getPiece());
+                            branches.add(new PlaysTask(board, longer, rest, plays, prunes, w, maxMillis));
+                        }
+                    }
+            }
+            invokeAll(branches);
+            if (!leaf && !path.isEmpty()) {
+                HashSet<QwirklePlacement> copied = newPlay(path);
+                prunes.add(copied);
+                if (plays != prunes)
+                    plays.add(copied);
+            }
+        }
+    }
+
     /** Recursively build up a set of all possible moves (depth-first tree search).
      *   Note: Be sure to balance modifications of collections that come from above,
      *   except for adding to <tt>plays</tt>. Note the use of HashSets -- they need to
      *   all be that exact type because we rely on HashSet.equals().
-     *  @param board make hypothetical plays on it
+     *  @param board make hypothetical plays on it -- <tt>played</tt> is pushed onto it
      *  @param played a hypothetical play we're considering, which we'll add to
      *  @param toPlay the pieces we have left that we can add to the play
      *  @param plays the plays we've found and considered so far
-     *  @param prunes the branches we've already considered */
+     *  @param prunes the branches we've already considered -- if the search is in parallel, a concurrent
+     *                set, in which adding a branch is how a thread claims it */
     private static void buildAllPossiblePlays
-        (QwirkleBoard board, Set<QwirklePlacement> played, Set<QwirklePiece> toPlay,
+        (QwirkleSearchBoard board, Set<QwirklePlacement> played, Set<QwirklePiece> toPlay,
         Set<Set<QwirklePlacement>> plays, Set<Set<QwirklePlacement>> prunes,
          Stopwatch w, long maxMillis)
     {
@@ -89,7 +194,7 @@ public class PlayerKit {
         HashSet<QwirklePiece> toPlayScratch = new HashSet<>(toPlay); // avoid concurrent mod
         for (QwirklePiece piece : toPlay) {
             // each possible place is a new potential play
-            Collection<QwirklePlacement> places = board.getLegalPlacements(played, piece);
+            Collection<QwirklePlacement> places = board.getLegalPlacements(piece);
             if (!places.isEmpty())
                 leaf = true;
             // keep going if we have time to spare
@@ -98,20 +203,21 @@ public class PlayerKit {
                 for (QwirklePlacement place : places) {
                     // do
                     played.add(place);
+                    board.push(place);
                     toPlayScratch.remove(place.getPiece());
                     // descend
-                    if (!prunes.contains(played)) { // relies on HashSet.equals()
-                        prunes.add(new HashSet<>(played));
+                    if (!prunes.contains(played) // relies on HashSet.equals()
+                            && prunes.add(newPlay(played))) // still not there, if another thread is searching too
                         buildAllPossiblePlays(board, played, toPlayScratch, plays, prunes, w, maxMillis);
-                    }
                      // undo
                     toPlayScratch.add(place.getPiece());
+                    board.pop();
                     played.remove(place);
                 }
         }
         // if we couldn't add any pieces to our current move, it's a leaf
         if (!leaf && !played.isEmpty()) {
-            HashSet<QwirklePlacement> copied = new HashSet<>(played);
+            HashSet<QwirklePlacement> copied = newPlay(played);
             prunes.add(copied);
             if (plays != prunes) // they're the same when we want to include all the shorties
                 plays.add(copied);
@@ -127,30 +233,71 @@ public class PlayerKit {
     public static Multimap<Integer, Set<QwirklePlacement>> rankAllMoves
     (QwirkleBoard board, List<QwirklePiece> hand, Stopwatch w, long maxMillis, boolean includeEmptyPlay, boolean includeShorties)
     {
-        // all the possible moves, but without scores
-        Set<Set<QwirklePlacement>> plays
-                = findAllPossiblePlays(board, hand, includeShorties, w, maxMillis);
+        return rankAllMoves(board, hand, w, maxMillis, includeEmptyPlay, includeShorties, false);
+    }
 
+    /** Find all moves and rank them -- see {@link #rankAllMoves(QwirkleBoard, List, Stopwatch, long, boolean, boolean)}.
+     *  @param parallel if true, search for them with all the cores -- see
+     *                  {@link #findAllPossiblePlays(QwirkleBoard, List, boolean, Stopwatch, long, boolean)} */
+    public static Multimap<Integer, Set<QwirklePlacement>> rankAllMoves
+    (QwirkleBoard board, List<QwirklePiece> hand, Stopwatch w, long maxMillis, boolean includeEmptyPlay,
+     boolean includeShorties, boolean parallel)
+    {
         // map of score to move -- highest score first
-        //noinspection unchecked
-        Multimap<Integer, Set<QwirklePlacement>> result
-                = TreeMultimap.create(Collections.reverseOrder(), setComparator);
+        final Multimap<Integer, Set<QwirklePlacement>> result
+                = TreeMultimap.create(Collections.reverseOrder(), RankedPlays.PLAY_ORDER);
+        rankAllMoves(board, hand, w, maxMillis, includeEmptyPlay, includeShorties, parallel, new PlayConsumer() {
+            @Override
+            public void accept(Set<QwirklePlacement> play, int score) {
+                result.put(score, play);
+            }
+        });
+        return result;
+    }
 
-        // 0 points for playing nothing, so that we return an empty move if nothing is possible
+    /** Find all moves and pass each one, with its score, to <tt>consumer</tt> -- usually one of the
+     *  {@link RankedPlays}, which keep only the best few. Unless the search has to fall back on
+     *  {@link #searchAllPossiblePlays}, the plays are never all kept anywhere at once -- and if
+     *  <tt>consumer</tt> is a {@link BoundedPlayConsumer}, the ones it wouldn't want aren't even
+     *  made, and the most promising are tried first, so a time limit cuts off the least promising.
+     *  In parallel or not. The fallback, for games too unusual for {@link LinePlayGenerator}, makes
+     *  and scores every play -- without lines to go by, there's nothing to bound a play by.
+     *  See {@link #rankAllMoves(QwirkleBoard, List, Stopwatch, long, boolean, boolean)}. */
+    public static void rankAllMoves
+    (QwirkleBoard board, List<QwirklePiece> hand, Stopwatch w, long maxMillis,
+     boolean includeEmptyPlay, boolean includeShorties, boolean parallel, PlayConsumer consumer)
+    {
+        rankAllMoves(board, hand, w, maxMillis, includeEmptyPlay, includeShorties,
+                parallel ? SearchPool.POOL : null, consumer);
+    }
+
+    /** Find all moves with the threads of <tt>pool</tt>, rather than the pool that parallel searches
+     *  share, and pass each one, with its score, to <tt>consumer</tt> -- from one thread at a time. See
+     *  {@link #rankAllMoves(QwirkleBoard, List, Stopwatch, long, boolean, boolean, boolean, PlayConsumer)}.
+     *  @param pool the threads to search with, or null to search in this one */
+    public static void rankAllMoves
+    (QwirkleBoard board, List<QwirklePiece> hand, Stopwatch w, long maxMillis,
+     boolean includeEmptyPlay, boolean includeShorties, ForkJoinPool pool, PlayConsumer consumer)
+    {
+        // 0 points for playing nothing, so that there's an empty move if nothing is possible
         if (includeEmptyPlay)
-            result.put(0, new HashSet<QwirklePlacement>());
-
-        // rank them
-        for (Set<QwirklePlacement> play : plays) {
-//            int score = board.play(play).getLastScore();
-//            System.out.print(play + "(" + score + ") before " + result.size());
-//            result.put(score, play);
-//            System.out.println(" after " + result.size());
-            result.put(board.play(play).getLastScore(), play);
+            consumer.accept(new HashSet<QwirklePlacement>(), 0);
+
+        if (LinePlayGenerator.generate(board, hand, includeShorties, w, maxMillis, pool, consumer))
+            w.mark("ranked");
+        else {
+            Set<Set<QwirklePlacement>> plays
+                    = searchAllPossiblePlays(board, hand, includeShorties, w, maxMillis, pool);
+            // score them -- as many as there's time for, since the search can turn up thousands
+            int n = 0;
+            for (Set<QwirklePlacement> play : plays) {
+                if ((n > 0 || includeEmptyPlay) && maxMillis >= 0 && w.getElapsed() >= maxMillis)
+                    break;
+                consumer.accept(play, board.score(play));
+                ++n;
+            }
+            w.mark("ranked " + n);
         }
-        w.mark("ranked " + result.size());
         debugln(w.toString());
-
-        return result;
     }
 }
@@ -13,7 +13,8 @@ import java.util.*;
 public class Rainbow {
     public static final int DEFAULT_DISLIKE_MONOCHROME = 1;
 
-    Map<QwirkleColor, Integer> indexes = new HashMap<>();
+    // each color's place in the rainbow, by color ordinal; -1 if it isn't in it
+    int[] indexes;
     List<QwirkleColor> rainbow = new ArrayList<>();
 
     private int dislikeMonochrome = DEFAULT_DISLIKE_MONOCHROME;
@@ -25,19 +26,25 @@ public class Rainbow {
     public Rainbow(Collection<QwirkleColor> colors) {
         Set<QwirkleColor> remaining = new HashSet<>(colors);
         QwirkleColor x = null;
+        int n = 0;
+        for (QwirkleColor color : colors)
+            n = Math.max(n, color.getOrdinal() + 1);
+        indexes = new int[n];
+        Arrays.fill(indexes, -1);
         int i = 0;
         while (!remaining.isEmpty()) {
             x = (x == null ? pickStart(colors) : nearest(x, remaining));
             rainbow.add(x);
-            indexes.put(x, i++);
+            indexes[x.getOrdinal()] = i++;
             remaining.remove(x);
         }
     }
 
     public int computeRainbowDeviation(QwirkleBoard board) {
-        // include padding so that we run off the end of groups to force a calculation
-        return deviation(board, board.getHorizontalWalker(1))
-                + deviation(board, board.getVerticalWalker(1));
+        Deviation result = new Deviation();
+        board.forEachRun(true, result);
+        board.forEachRun(false, result);
+        return result.total;
     }
 
     /** How much do we penalize pieces in a sequence that are the same color,
@@ -58,32 +65,19 @@ public class Rainbow {
         this.dislikeJumps = dislikeJumps;
     }
 
-    private int deviation(QwirkleBoard board, QwirkleGrid.GridWalker gi) {
-        int result = 0;
-        List<QwirkleColor> line = new ArrayList<>();
-        for (QwirkleGrid.LineWalker li : gi) {
-            for (QwirkleLocation location : li) {
-                QwirklePiece piece = board.get(location);
-                if (piece == null && !line.isEmpty()) {
-                    result += deviation(line);
-                    line.clear();
-                }
-                if (piece != null)
-                    line.add(piece.getColor());
-            }
-        }
-        return result;
-    }
+    /** Adds up the deviation of each run of pieces on a board. */
+    private class Deviation implements QwirkleGrid.RunVisitor {
+        private int total = 0;
 
-    private int deviation(List<QwirkleColor> sequence) {
-        int result = 0;
-        QwirkleColor prev = sequence.get(0);
-        for (int i = 1; i < sequence.size(); ++i) {
-            QwirkleColor next = sequence.get(i);
-            result += Math.min(rainbowDistance(prev, next), rainbowDistance(next, prev));
-            prev = next;
+        @Override
+        public void visit(int fixed, int start, int end, QwirklePlacement[] placements) {
+            QwirkleColor prev = placements[0].getColor();
+            for (int i = 1; i <= end - start; ++i) {
+                QwirkleColor next = placements[i].getColor();
+                total += Math.min(rainbowDistance(prev, next), rainbowDistance(next, prev));
+                prev = next;
+            }
         }
-        return result;
     }
 
     /** How non-rainbow-y is this sequence of colors? */
@@ -110,12 +104,21 @@ public class Rainbow {
 
     /** A positive distance in the rainbow from a to b. */
     private int rainbowDistance(QwirkleColor a, QwirkleColor b) {
-        int result = indexes.get(b) - indexes.get(a);
-        if (result < 0) result += indexes.size();
+        int result = indexOf(b) - indexOf(a);
+        if (result < 0) result += rainbow.size();
         return (result == 1) ? dislikeRainbow
                 : (result == 0 ? dislikeMonochrome : result * dislikeJumps);
     }
 
+    /** Where <tt>color</tt> is in the rainbow. */
+    private int indexOf(QwirkleColor color) {
+        int ordinal = color.getOrdinal();
+        int result = ordinal < indexes.length ? indexes[ordinal] : -1;
+        if (result < 0)
+            throw new IllegalArgumentException(color + " is not in the rainbow " + rainbow);
+        return result;
+    }
+
     /** Pick the color that is farthest from its two nearest neighbors -- it will help us find a cycle. */
     private static QwirkleColor pickStart(Collection<QwirkleColor> colors) {
         if (colors.size() < 3)
@@ -1,6 +1,5 @@
 package qwirkle.game.control.players;
 
-import com.google.common.collect.Multimap;
 import qwirkle.game.base.*;
 import qwirkle.util.Stopwatch;
 
@@ -69,32 +68,30 @@ public class RainbowAI extends TimeLimitAI {
     public Collection<QwirklePlacement> play(QwirkleBoard board, List<QwirklePiece> hand) {
         Stopwatch w = new Stopwatch();
 
-        // ranked by score, highest first
+        // the ones within our bias of the best score, highest first
         // (note we include the empty play, since if we just have junk plays, we'd rather draw and try for a rainbow)
-        Multimap<Integer, Set<QwirklePlacement>> ranked
-                = PlayerKit.rankAllMoves(board, hand, w, getMaxMillis(), true, true);
+        RankedPlays ranked = new RankedPlays.WithinBias(bias);
+        PlayerKit.rankAllMoves(board, hand, w, getMaxMillis(), true, true, isParallel(), ranked);
         w.mark("rank by score");
 
-        // find the one with the best rainbow-ness, within our bias
+        // find the one with the best rainbow-ness
 //        Rainbow rainbow = new Rainbow(compileColors(board, hand));
-        int max = ranked.keySet().iterator().next();
         Set<QwirklePlacement> best = null;
         int minDeviation = Integer.MAX_VALUE;
         int nConsidered = 0;
-        for (Integer score : ranked.keySet()) {
-            if (max - score > bias) break;
-            Collection<Set<QwirklePlacement>> moves = ranked.get(score);
-            for (Set<QwirklePlacement> move : moves) {
-                ++nConsidered;
-                int deviation = rainbow.computeRainbowDeviation(board.play(move));
-                if (deviation < minDeviation) {
-                    best = move;
-                    minDeviation = deviation;
-                }
+        for (Set<QwirklePlacement> move : ranked) {
+            // out of time? go with the best we've found so far
+            if (best != null && getMaxMillis() >= 0 && w.getElapsed() >= getMaxMillis())
+                break;
+            ++nConsidered;
+            int deviation = rainbow.computeRainbowDeviation(board.play(move));
+            if (deviation < minDeviation) {
+                best = move;
+                minDeviation = deviation;
             }
         }
         w.mark("rank by rainbow");
-        debug(w + ": total possible moves " + ranked.size() + "; considered " + nConsidered);
+        debug(w + ": considered " + nConsidered);
         setLastMoveWatch(w);
         return best;
     }
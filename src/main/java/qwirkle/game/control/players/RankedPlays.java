@@ -0,0 +1,209 @@
+package qwirkle.game.control.players;
+
+import qwirkle.game.base.QwirklePlacement;
+
+import java.util.*;
+
+/** Keeps the best of the plays it is given, in order, without holding on to the rest:
+ *  <ul>
+ *      <li>{@link Best} -- just the best one</li>
+ *      <li>{@link Top} -- the best <i>k</i></li>
+ *      <li>{@link WithinBias} -- all the ones that score within a few points of the best</li>
+ *  </ul>
+ *  Plays rank by score, highest first, and then by {@link #PLAY_ORDER}. Iterating goes through
+ *  them in that order, sorting only as far as it gets -- often not far, for a player short on time.
+ *  Plays that score less than {@link #getMinScore} wouldn't be kept, so they needn't be found. */
+public abstract class RankedPlays implements BoundedPlayConsumer, Iterable<Set<QwirklePlacement>> {
+    /** Among plays with the same score: fewest placements first, then by comparing placements in
+     *  the order the plays iterate them (see {@link PlayerKit#newPlay}), so the same plays always
+     *  come out in the same order. */
+    public static final Comparator<Set<QwirklePlacement>> PLAY_ORDER = new Comparator<Set<QwirklePlacement>>() {
+        @Override
+        public int compare(Set<QwirklePlacement> a, Set<QwirklePlacement> b) {
+            if (a.size() != b.size())
+                return a.size() - b.size();
+            Iterator<QwirklePlacement> ia = a.iterator(), ib = b.iterator();
+            while (ia.hasNext() && ib.hasNext()) {
+                int c = ia.next().compareTo(ib.next());
+                if (c != 0)
+                    return c;
+            }
+            return 0; // all elements matched
+        }
+    };
+
+    /** A play and its score. */
+    static class Ranked {
+        final Set<QwirklePlacement> play;
+        final int score;
+        private QwirklePlacement[] placements; // in the order play iterates them, once needed
+
+        Ranked(Set<QwirklePlacement> play, int score) {
+            this.play = play;
+            this.score = score;
+        }
+
+        QwirklePlacement[] getPlacements() {
+            if (placements == null)
+                placements = play.toArray(new QwirklePlacement[play.size()]);
+            return placements;
+        }
+    }
+
+    // best first -- the same as PLAY_ORDER within a score, without iterating plays over and over
+    static final Comparator<Ranked> RANK_ORDER = new Comparator<Ranked>() {
+        @Override
+        public int compare(Ranked a, Ranked b) {
+            if (a.score != b.score)
+                return a.score > b.score ? -1 : 1;
+            if (a.play.size() != b.play.size())
+                return a.play.size() - b.play.size();
+            QwirklePlacement[] pa = a.getPlacements(), pb = b.getPlacements();
+            for (int i = 0; i < pa.length; ++i) {
+                int c = pa[i].compareTo(pb[i]);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+    };
+
+    /** The plays kept, in no particular order. */
+    abstract Collection<Ranked> getRanked();
+
+    /** The plays kept, best first. */
+    public List<Set<QwirklePlacement>> getPlays() {
+        List<Set<QwirklePlacement>> result = new ArrayList<>();
+        for (Set<QwirklePlacement> play : this)
+            result.add(play);
+        return result;
+    }
+
+    /** The plays kept, best first -- from a heap, so each one costs about log(n) comparisons, and
+     *  stopping early saves sorting the rest. */
+    @Override
+    public Iterator<Set<QwirklePlacement>> iterator() {
+        Collection<Ranked> ranked = getRanked();
+        final PriorityQueue<Ranked> heap = new PriorityQueue<>(Math.max(1, ranked.size()), RANK_ORDER);
+        heap.addAll(ranked);
+        return new Iterator<Set<QwirklePlacement>>() {
+            @Override public boolean hasNext() { return !heap.isEmpty(); }
+
+            @Override
+            public Set<QwirklePlacement> next() {
+                if (heap.isEmpty())
+                    throw new NoSuchElementException();
+                return heap.poll().play;
+            }
+
+            @Override public void remove() { throw new UnsupportedOperationException(); }
+        };
+    }
+
+    /** The highest score of all the plays given, or {@link Integer#MIN_VALUE} if there weren't any. */
+    public abstract int getBestScore();
+
+    /** The best play, or null if there weren't any. */
+    public Set<QwirklePlacement> getBest() {
+        Iterator<Set<QwirklePlacement>> plays = iterator();
+        return plays.hasNext() ? plays.next() : null;
+    }
+
+    /** Just the best play. */
+    public static class Best extends RankedPlays {
+        private Ranked best;
+
+        @Override
+        public void accept(Set<QwirklePlacement> play, int score) {
+            if (best != null && score < best.score)
+                return;
+            Ranked ranked = new Ranked(play, score);
+            if (best == null || RANK_ORDER.compare(ranked, best) < 0)
+                best = ranked;
+        }
+
+        @Override
+        Collection<Ranked> getRanked() {
+            return best == null ? Collections.<Ranked>emptyList() : Collections.singletonList(best);
+        }
+
+        @Override public Set<QwirklePlacement> getBest() { return best == null ? null : best.play; }
+        @Override public int getBestScore() { return best == null ? Integer.MIN_VALUE : best.score; }
+        // a play with the same score could still come first
+        @Override public int getMinScore() { return getBestScore(); }
+    }
+
+    /** The best <i>k</i> plays, in a heap with the worst of them on top, ready to be replaced. */
+    public static class Top extends RankedPlays {
+        private final int k;
+        private final PriorityQueue<Ranked> heap;
+
+        public Top(int k) {
+            if (k < 1)
+                throw new IllegalArgumentException("Need to keep at least 1 play, not " + k + ".");
+            this.k = k;
+            this.heap = new PriorityQueue<>(k, Collections.reverseOrder(RANK_ORDER));
+        }
+
+        @Override
+        public void accept(Set<QwirklePlacement> play, int score) {
+            Ranked ranked = new Ranked(play, score);
+            if (heap.size() < k)
+                heap.add(ranked);
+            else if (RANK_ORDER.compare(ranked, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(ranked);
+            }
+        }
+
+        @Override Collection<Ranked> getRanked() { return heap; }
+
+        @Override
+        public int getMinScore() {
+            return heap.size() < k ? Integer.MIN_VALUE : heap.peek().score;
+        }
+
+        @Override
+        public int getBestScore() {
+            int result = Integer.MIN_VALUE;
+            for (Ranked ranked : heap)
+                result = Math.max(result, ranked.score);
+            return result;
+        }
+    }
+
+    /** All the plays that score no more than <tt>bias</tt> less than the best -- as a heap with the
+     *  lowest score on top, so that when a better play comes along, the ones it leaves behind can go. */
+    public static class WithinBias extends RankedPlays {
+        private final int bias;
+        private final PriorityQueue<Ranked> heap = new PriorityQueue<>(11, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked a, Ranked b) {
+                return a.score < b.score ? -1 : a.score == b.score ? 0 : 1;
+            }
+        });
+        private int best = Integer.MIN_VALUE;
+
+        public WithinBias(int bias) {
+            if (bias < 0)
+                throw new IllegalArgumentException("Negative bias: " + bias);
+            this.bias = bias;
+        }
+
+        @Override
+        public void accept(Set<QwirklePlacement> play, int score) {
+            if (best != Integer.MIN_VALUE && score < best - bias)
+                return;
+            heap.add(new Ranked(play, score));
+            if (score > best) {
+                best = score;
+                while (heap.peek().score < best - bias)
+                    heap.poll();
+            }
+        }
+
+        @Override Collection<Ranked> getRanked() { return heap; }
+        @Override public int getBestScore() { return best; }
+        @Override public int getMinScore() { return best == Integer.MIN_VALUE ? best : best - bias; }
+    }
+}
@@ -5,7 +5,6 @@ import qwirkle.game.base.QwirkleBoard;
 import qwirkle.game.base.QwirkleGrid;
 import qwirkle.game.base.QwirkleKit;
 import qwirkle.game.base.QwirklePlacement;
-import qwirkle.game.base.impl.QwirkleBoardImpl;
 import qwirkle.game.event.GameStarted;
 import qwirkle.game.event.TurnCompleted;
 import qwirkle.ui.control.HypotheticalPlayController;
@@ -59,7 +58,7 @@ public class SwingGameboard extends SwingGrid {
     public void setGrid(QwirkleGrid grid) {
         if (grid == null)
             //noinspection unchecked
-            grid = new QwirkleBoardImpl(control.getGame().getSettings());
+            grid = control.getGame().getSettings().createBoard();
         super.setGrid(grid);
     }
 
@@ -6,6 +6,7 @@ import qwirkle.game.base.QwirkleColor;
 import qwirkle.game.base.QwirklePlayer;
 import qwirkle.game.base.QwirkleSettings;
 import qwirkle.game.base.QwirkleShape;
+import qwirkle.game.base.UndoRetention;
 import qwirkle.game.control.impl.NewThreadEachTime;
 import qwirkle.game.control.players.RainbowAI;
 import qwirkle.game.event.*;
@@ -52,7 +53,9 @@ public class SwingMain {
 //                players.add(new QwirklePlayer(new MaxPlayer("Gilly")));
 //                players.add(new QwirklePlayer(new StupidPlayer("1")));
 
-                QwirkleSettings settings = new QwirkleSettings(DECKS, SHAPES, COLORS, players);
+                // autoplay runs game after game, and nothing here undoes, so don't keep old boards around
+                QwirkleSettings settings = new QwirkleSettings(DECKS, SHAPES, COLORS, players)
+                        .withUndoRetention(UndoRetention.WEAK);
 
                 // TODO move settings to a setup screen and dynamically update them
                 QwirkleUIController control = new QwirkleUIController(settings, new NewThreadEachTime());
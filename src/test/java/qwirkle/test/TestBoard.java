@@ -2,7 +2,10 @@ package qwirkle.test;
 
 import com.google.common.eventbus.Subscribe;
 import qwirkle.game.base.*;
+import qwirkle.game.base.impl.PackedQwirkleGrid;
 import qwirkle.game.base.impl.QwirkleBoardImpl;
+import qwirkle.game.base.impl.QwirkleGridImpl;
+import qwirkle.game.base.impl.QwirkleSearchBoard;
 import qwirkle.game.control.GameController;
 import qwirkle.game.control.impl.SingleThreadedStrict;
 import qwirkle.game.control.players.MaxAI;
@@ -13,6 +16,7 @@ import qwirkle.ui.control.QwirkleUIController;
 import qwirkle.util.Stopwatch;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 /** Basic tests of the Qwirkle game board. */
 public class TestBoard {
@@ -29,6 +33,9 @@ public class TestBoard {
         TestBoard.testInit();
         w.mark("init");
 
+        TestBoard.testPackedGrid();
+        w.mark("packed grid");
+
         TestBoard.testLegal();
         w.mark("legality");
 
@@ -41,12 +48,94 @@ public class TestBoard {
         TestBoard.testGroup();
         w.mark("group");
 
+        TestBoard.testZobrist();
+        w.mark("zobrist");
+
+        TestBoard.testGridKey();
+        w.mark("grid key");
+
+        TestBoard.testShared();
+        w.mark("shared");
+
+        TestBoard.testUndo();
+        w.mark("undo");
+
         System.out.println(" -- Completed board test: " + w.getTotal());
     }
 
     /** Test some miscellaneous logical things. */
     private static void testLogic() {
         testCountMatches();
+        testFlyweights();
+        testPieceCodes();
+    }
+
+    /** Test numbering the kinds of pieces in a game, and the array math that uses it. */
+    private static void testPieceCodes() {
+        QwirkleSettings settings = new QwirkleSettings(1, QwirkleShape.FOUR_SHAPES, QwirkleColor.FIVE_COLORS,
+                QwirklePlayer.wrap(Arrays.<QwirkleAI>asList(new MaxAI("a"))));
+        Set<Integer> codes = new HashSet<>();
+        for (QwirklePiece piece : settings.generate()) {
+            int code = settings.getPieceCode(piece);
+            assert code >= 0 && code < settings.getKindCount();
+            assert settings.getPiece(code) == piece.getCanonical();
+            assert code / settings.getShapes().size() == settings.getColorIndex(piece.getColor());
+            assert code % settings.getShapes().size() == settings.getShapeIndex(piece.getShape());
+            codes.add(code);
+        }
+        assert codes.size() == settings.getKindCount();
+        assert settings.getPieceCode(QwirklePiece.of(QwirkleColor.BLUE, QwirkleShape.square)) == -1;
+        assert settings.getPieceCode(QwirklePiece.of(QwirkleColor.RED, QwirkleShape.heart)) == -1;
+        assert settings.getColorIndex(QwirkleColor.createRainbow(3).get(0)) == -1;
+
+        // count only the pieces in the game
+        List<QwirklePiece> hand = Arrays.asList(new QwirklePiece("rs"), new QwirklePiece("rc"),
+                new QwirklePiece("rs"), new QwirklePiece("bs"), new QwirklePiece("bc"));
+        assert QwirkleKit.countMatches(hand) == 2;
+        assert QwirkleKit.countMatches(hand, settings) == 2;
+        assert QwirkleKit.countMatches(hand, new QwirkleSettings()) == 2;
+
+        // keep the biggest group, and discard one of each other kind of piece
+        QwirkleBoard board = new QwirkleBoardImpl(new QwirkleSettings());
+        hand = Arrays.asList(new QwirklePiece("rs"), new QwirklePiece("gs"), new QwirklePiece("bs"),
+                new QwirklePiece("rc"), new QwirklePiece("rc"), new QwirklePiece("bs"));
+        Collection<QwirklePiece> discard = new MaxAI("m").discard(board, hand);
+        assert discard.size() == 1 && discard.iterator().next() == hand.get(3) : discard;
+        hand = Arrays.asList(new QwirklePiece("rs"), new QwirklePiece("gc"), new QwirklePiece("gc"));
+        discard = new MaxAI("m").discard(board, hand);
+        assert discard.size() == 2 && discard.contains(hand.get(0)) && discard.contains(hand.get(1)) : discard;
+    }
+
+    /** Test that canonical pieces, locations, and placements are shared, but tiles stay distinct. */
+    private static void testFlyweights() {
+        QwirklePiece canonical = QwirklePiece.of("bd");
+        assert canonical == QwirklePiece.of(QwirkleColor.BLUE, QwirkleShape.diamond);
+        assert canonical.getCanonical() == canonical;
+
+        // tiles are separate objects, but equal to their canonical piece
+        QwirklePiece a = new QwirklePiece("bd"), b = new QwirklePiece(QwirkleColor.BLUE, QwirkleShape.diamond);
+        assert a != b && a != canonical;
+        assert a.equals(b) && a.equals(canonical) && a.hashCode() == canonical.hashCode();
+        assert a.compareTo(b) == 0 && a.getCanonical() == canonical;
+        assert !a.equals(QwirklePiece.of("gd")) && a.compareTo(QwirklePiece.of("gd")) != 0;
+        // in order by color name and then shape, however they were created
+        assert a.compareTo(QwirklePiece.of("gd")) < 0 && QwirklePiece.of("rd").compareTo(a) > 0;
+        assert QwirklePiece.of("bs").compareTo(QwirklePiece.of("bc")) < 0;
+
+        // locations near the middle are cached; others are just equal
+        assert QwirkleLocation.of(3, -5) == QwirkleLocation.of(3, -5);
+        assert QwirkleLocation.of(3, -5).equals(new QwirkleLocation(3, -5));
+        assert QwirkleLocation.of(3, -5).getLeft() == QwirkleLocation.of(2, -5);
+        assert QwirkleLocation.of(1000, 0).equals(QwirkleLocation.of(1000, 0));
+
+        // placements are shared only for the same tile
+        QwirklePlacement pa = QwirklePlacement.of(a, 2, 2);
+        assert pa == QwirklePlacement.of(a, QwirkleLocation.of(2, 2));
+        assert pa.getPiece() == a;
+        QwirklePlacement pb = QwirklePlacement.of(b, 2, 2);
+        assert pb.getPiece() == b && pb.equals(pa) && pb.hashCode() == pa.hashCode();
+        assert pa.equals(new QwirklePlacement(canonical, 2, 2));
+        assert QwirklePlacement.of(a, 1000, 0).getPiece() == a;
     }
 
     /** Test counting the number of matching pieces a player has. Used to determine who goes first. */
@@ -139,6 +228,80 @@ public class TestBoard {
         }
     }
 
+    /** Compare the packed grid to the simpler map-based one. */
+    private static void testPackedGrid() {
+        List<QwirklePiece> deck = new QwirkleSettings().generate();
+        List<QwirklePlacement> placements = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            QwirklePiece piece = deck.get(r.nextInt(deck.size()));
+            placements.add(new QwirklePlacement(piece, r.nextInt(60) - 30, r.nextInt(60) - 30));
+            if (i % 20 == 0) {
+                checkSameGrid(new QwirkleGridImpl(placements), new PackedQwirkleGrid(placements));
+                checkSameGrid(new QwirkleGridImpl(placements), new PackedQwirkleGrid(placements, true));
+            }
+        }
+        QwirkleGrid empty = new PackedQwirkleGrid();
+        assert empty.size() == 0 && empty.getPlacement(0, 0) == null;
+        assert empty.getWidth() == 1 && empty.getHeight() == 1;
+
+        // dense boards share their arrays with the boards after them -- but not with
+        // the other boards that branch off from the same one
+        QwirkleSettings settings = new QwirkleSettings().withBoardFactory(QwirkleBoardImpl.DENSE);
+        List<QwirkleBoard> boards = new ArrayList<>();
+        QwirkleBoard board = settings.createBoard();
+        assert ((PackedQwirkleGrid) board).isDense();
+        for (QwirklePiece piece : deck) {
+            List<QwirklePlacement> legal = new ArrayList<>(board.getLegalPlacements(piece));
+            if (legal.size() < 2)
+                continue;
+            Collections.shuffle(legal, r);
+            QwirkleBoard branch = board.play(legal.get(1));
+            board = board.play(legal.get(0));
+            boards.add(branch);
+            boards.add(board);
+            checkSameGrid(new QwirkleGridImpl(branch.getPlacements()), branch);
+        }
+        for (QwirkleBoard b : boards)
+            checkSameGrid(new QwirkleGridImpl(b.getPlacements()), b);
+        assert ((PackedQwirkleGrid) board).isDense();
+    }
+
+    private static void checkSameGrid(QwirkleGrid expected, QwirkleGrid actual) {
+        assert expected.size() == actual.size();
+        assert expected.getXMin() == actual.getXMin() && expected.getXMax() == actual.getXMax();
+        assert expected.getYMin() == actual.getYMin() && expected.getYMax() == actual.getYMax();
+        for (int x = expected.getXMin() - 1; x <= expected.getXMax() + 1; ++x)
+            for (int y = expected.getYMin() - 1; y <= expected.getYMax() + 1; ++y)
+                assert expected.getPlacement(x, y) == actual.getPlacement(x, y) : x + ", " + y;
+        // run extents, including from empty spots and from off the edge
+        for (int x = expected.getXMin() - 1; x <= expected.getXMax() + 1; ++x)
+            for (int y = expected.getYMin() - 1; y <= expected.getYMax() + 1; ++y)
+                for (boolean horizontal : new boolean[] { true, false }) {
+                    assert expected.getRunStart(x, y, horizontal) == actual.getRunStart(x, y, horizontal);
+                    assert expected.getRunEnd(x, y, horizontal) == actual.getRunEnd(x, y, horizontal);
+                    int fixed = horizontal ? y : x, from = horizontal ? x : y;
+                    for (int to = from - 1; to <= from + 3; ++to)
+                        assert expected.isContiguous(horizontal, fixed, from, to)
+                                == actual.isContiguous(horizontal, fixed, from, to) : x + ", " + y + " to " + to;
+                }
+        assert getRuns(expected, true).equals(getRuns(actual, true));
+        assert getRuns(expected, false).equals(getRuns(actual, false));
+        assert expected.toString().equals(actual.toString());
+    }
+
+    /** The runs in <tt>grid</tt>, in the order {@link QwirkleGrid#forEachRun} visits them. */
+    private static List<String> getRuns(QwirkleGrid grid, boolean horizontal) {
+        final List<String> result = new ArrayList<>();
+        grid.forEachRun(horizontal, new QwirkleGrid.RunVisitor() {
+            @Override
+            public void visit(int fixed, int start, int end, QwirklePlacement[] placements) {
+                result.add(fixed + ": " + start + "-" + end + " "
+                        + Arrays.asList(placements).subList(0, end - start + 1));
+            }
+        });
+        return result;
+    }
+
     /** Test playing groups of tiles. */
     private static QwirkleBoard testGroup() {
         QwirkleBoard board = new QwirkleBoardImpl(new QwirkleSettings());
@@ -151,6 +314,7 @@ public class TestBoard {
         first.add(new QwirklePlacement("o4", 2, 1));
         assert !board.isLegal(first);
         first.remove(3);
+        assert board.score(first) == 3;
         board = board.play(first);
 //        System.out.println(board);
 
@@ -206,13 +370,244 @@ public class TestBoard {
         assert !board.isLegal(sixth);
         sixth.remove(4);
         board = board.play(sixth);
+        checkLines(board);
 //        System.out.println(board);
 
+        // a play can span pieces that are already on the board -- this one completes a column
+        List<QwirklePlacement> seventh = new ArrayList<>();
+        seventh.add(new QwirklePlacement("oc", 0, 3));
+        seventh.add(new QwirklePlacement("o4", 0, -2));
+        assert board.isLegal(seventh);
+        assert board.score(seventh) == 12 && board.scoreIfLegal(seventh) == 12;
         // illegal: gap
+        seventh.set(1, new QwirklePlacement("o4", 0, -3));
+        assert !board.isLegal(seventh);
+        assert board.scoreIfLegal(seventh) == -1;
+        // illegal: two pieces in the same spot
+        seventh.set(1, new QwirklePlacement("o4", 0, 3));
+        assert !board.isLegal(seventh);
+        // illegal: doesn't touch the board
+        assert !board.isLegal(Arrays.asList(new QwirklePlacement("o4", 5, 5), new QwirklePlacement("oc", 6, 5)));
+        // the same placement twice is a mistake, not just an illegal play
+        try {
+            board.isLegal(Arrays.asList(seventh.get(0), seventh.get(0)));
+            assert false;
+        } catch(IllegalArgumentException ignored) {}
+        seventh.set(1, new QwirklePlacement("o4", 0, -2));
+        board = board.play(seventh);
+        assert board.getLastScore() == 12 : board.getLastScore();
+        checkLines(board);
 
         return board;
     }
 
+    /** Test that boards with the same pieces in the same places hash the same, however they got there. */
+    private static void testZobrist() {
+        QwirkleBoard empty = new QwirkleBoardImpl(new QwirkleSettings());
+        QwirklePlacement rs = new QwirklePlacement("rs", 0, 0), rc = new QwirklePlacement("rc", 1, 0),
+                r4 = new QwirklePlacement("r4", 2, 0), bc = new QwirklePlacement("bc", 1, 1);
+
+        // one piece at a time, in two different orders
+        QwirkleBoard a = empty.play(rs).play(rc).play(r4).play(bc);
+        QwirkleBoard b = empty.play(r4).play(rc).play(bc).play(rs);
+        assert a.getZobristHash() == b.getZobristHash();
+        // several at once
+        QwirkleBoard c = empty.play(Arrays.asList(r4, rs, rc)).play(bc);
+        assert c.getZobristHash() == a.getZobristHash();
+        // rebuilt from scratch
+        assert new QwirkleBoardImpl(a).getZobristHash() == a.getZobristHash();
+        // equal pieces are the same, whichever tile they are
+        assert empty.play(new QwirklePlacement("rs", 0, 0)).getZobristHash() == empty.play(rs).getZobristHash();
+
+        // different boards differ
+        assert a.getZobristHash() != a.getUndo().getZobristHash();
+        assert empty.play(rs).getZobristHash() != empty.play(new QwirklePlacement("rs", 1, 0)).getZobristHash();
+        assert empty.play(rs).getZobristHash() != empty.play(new QwirklePlacement("rc", 0, 0)).getZobristHash();
+
+        // a search board keeps track as pieces are pushed and popped
+        QwirkleSearchBoard search = new QwirkleSearchBoard(empty.play(rs));
+        search.push(rc);
+        search.push(r4);
+        assert search.getZobristHash() == empty.play(Arrays.asList(rs, rc, r4)).getZobristHash();
+        search.popTo(0);
+        assert search.getZobristHash() == empty.play(rs).getZobristHash();
+    }
+
+    /** Test that moved, rotated and flipped grids share a key. */
+    private static void testGridKey() {
+        QwirkleBoard board = new QwirkleBoardImpl(new QwirkleSettings()).play(Arrays.asList(
+                new QwirklePlacement("rs", 0, 0), new QwirklePlacement("rc", 1, 0), new QwirklePlacement("r4", 2, 0)))
+                .play(new QwirklePlacement("bc", 1, 1));
+        List<QwirklePlacement> moved = new ArrayList<>(), rotated = new ArrayList<>(), flipped = new ArrayList<>();
+        for (QwirklePlacement p : board.getPlacements()) {
+            moved.add(new QwirklePlacement(p.getPiece(), p.getX() + 7, p.getY() - 3));
+            rotated.add(new QwirklePlacement(p.getPiece(), -p.getY() + 2, p.getX()));
+            flipped.add(new QwirklePlacement(p.getPiece(), p.getX(), -p.getY()));
+        }
+        QwirkleGridKey key = QwirkleGridKey.of(board);
+        for (List<QwirklePlacement> placements : Arrays.asList(moved, rotated, flipped)) {
+            QwirkleGrid grid = new PackedQwirkleGrid(placements);
+            QwirkleGridKey other = QwirkleGridKey.of(grid);
+            assert key.equals(other) && key.hashCode() == other.hashCode() : key + " vs " + other;
+            // locations map across, through the key
+            for (QwirklePlacement p : board.getPlacements())
+                assert grid.get(other.fromKey(key.toKey(p.getLocation()))).equals(p.getPiece());
+        }
+        assert QwirkleGridKey.translationOf(board).equals(QwirkleGridKey.translationOf(new PackedQwirkleGrid(moved)));
+        assert !QwirkleGridKey.translationOf(board).equals(QwirkleGridKey.translationOf(new PackedQwirkleGrid(rotated)));
+        assert key.fromKey(key.toKey(QwirkleLocation.of(5, -2))).equals(QwirkleLocation.of(5, -2));
+
+        // different arrangements differ
+        assert !key.equals(QwirkleGridKey.of(board.getUndo()));
+        List<QwirklePlacement> swapped = new ArrayList<>(moved);
+        swapped.set(0, new QwirklePlacement("bs", moved.get(0).getX(), moved.get(0).getY()));
+        assert !key.equals(QwirkleGridKey.of(new PackedQwirkleGrid(swapped)));
+    }
+
+    /** Test that threads sharing a fresh board all see the same lines and legal placements. */
+    private static void testShared() {
+        QwirkleBoard expected = testGroup();
+        // replay the same turns, so that nothing has been worked out yet on any of the boards
+        Deque<Collection<QwirklePlacement>> turns = new ArrayDeque<>();
+        for (QwirkleBoard b = expected; b.getLastPlay() != null; b = b.getUndo())
+            turns.push(b.getLastPlay());
+        QwirkleBoard fresh = new QwirkleBoardImpl(expected.getSettings());
+        for (Collection<QwirklePlacement> turn : turns)
+            fresh = fresh.play(turn);
+        final QwirkleBoard shared = fresh;
+
+        final List<QwirklePiece> hand = new ArrayList<>();
+        for (QwirkleColor color : expected.getSettings().getColors())
+            for (QwirkleShape shape : expected.getSettings().getShapes())
+                hand.add(new QwirklePiece(color, shape));
+        final Set<QwirkleLine> expectedLines = new HashSet<>(expected.getLines());
+        final Map<QwirklePiece, Set<QwirklePlacement>> expectedLegal = new HashMap<>();
+        for (Map.Entry<QwirklePiece, Collection<QwirklePlacement>> entry : expected.getLegalPlacements(hand).entrySet())
+            expectedLegal.put(entry.getKey(), new HashSet<>(entry.getValue()));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            final boolean linesFirst = i % 2 == 0;
+            Thread thread = new Thread() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        if (linesFirst && !expectedLines.equals(new HashSet<>(shared.getLines())))
+                            failures.add("lines: " + shared.getLines());
+                        for (Map.Entry<QwirklePiece, Collection<QwirklePlacement>> entry
+                                : shared.getLegalPlacements(hand).entrySet())
+                            if (!expectedLegal.get(entry.getKey()).equals(new HashSet<>(entry.getValue())))
+                                failures.add(entry.getKey() + ": " + entry.getValue());
+                        if (!expectedLines.equals(new HashSet<>(shared.getLines())))
+                            failures.add("lines: " + shared.getLines());
+                    } catch (Throwable t) {
+                        failures.add(t.toString());
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            try { thread.join(); } catch (InterruptedException e) { throw new RuntimeException(e); }
+        assert failures.isEmpty() : failures;
+        assert shared.getLines() == shared.getLines();
+    }
+
+    /** Test that boards can undo -- rebuilding earlier boards if need be -- as far back as the
+     *  settings say, and no further than the earlier boards that happen to still be around. */
+    private static void testUndo() {
+        QwirkleBoard expected = testGroup();
+        List<QwirkleBoard> history = new ArrayList<>(); // newest first
+        for (QwirkleBoard b = expected; b != null; b = b.getUndo())
+            history.add(b);
+
+        for (UndoRetention retention : Arrays.asList(UndoRetention.ALL, UndoRetention.last(2), UndoRetention.WEAK)) {
+            // replay, holding on to just the newest board
+            QwirkleBoard board = new QwirkleBoardImpl(expected.getSettings().withUndoRetention(retention));
+            for (int i = history.size() - 2; i >= 0; --i)
+                board = board.play(history.get(i).getLastPlay());
+
+            // every step back is the right board -- at least as far as the settings say, and
+            // further if the boards before that haven't been collected yet
+            int steps = 0;
+            for (QwirkleBoard b = board; b != null; b = b.getUndo(), ++steps)
+                checkSameBoard(history.get(steps), b);
+            int expectedSteps = Math.min(retention.getDepth(), history.size() - 1);
+            assert steps > expectedSteps && steps <= history.size() : retention + ": " + steps + " vs " + expectedSteps;
+        }
+
+        // something else holding on to a board keeps it, even if its history is forgotten
+        QwirkleBoard board = new QwirkleBoardImpl(expected.getSettings().withUndoRetention(UndoRetention.WEAK));
+        QwirkleBoard first = board.play(history.get(history.size() - 2).getLastPlay());
+        assert first.play(history.get(history.size() - 3).getLastPlay()).getUndo() == first;
+    }
+
+    /** The same board, played the same way, under different settings. */
+    private static QwirkleBoard replay(QwirkleBoard board, QwirkleSettings settings) {
+        List<QwirkleBoard> history = new ArrayList<>(); // newest first
+        for (QwirkleBoard b = board; b != null && b.getLastPlay() != null; b = b.getUndo())
+            history.add(b);
+        QwirkleBoard result = new QwirkleBoardImpl(settings);
+        for (int i = history.size() - 1; i >= 0; --i)
+            result = result.play(history.get(i).getLastPlay());
+        return result;
+    }
+
+    private static void checkSameBoard(QwirkleBoard expected, QwirkleBoard actual) {
+        assert new HashSet<>(expected.getPlacements()).equals(new HashSet<>(actual.getPlacements()));
+        assert expected.getTurnCount() == actual.getTurnCount();
+        assert expected.getLastScore() == actual.getLastScore();
+        assert expected.getZobristHash() == actual.getZobristHash();
+        assert (expected.getLastPlay() == null) == (actual.getLastPlay() == null);
+        if (expected.getLastPlay() != null)
+            assert new HashSet<>(expected.getLastPlay()).equals(new HashSet<>(actual.getLastPlay()));
+        assert new HashSet<>(expected.getLines()).equals(new HashSet<>(actual.getLines()));
+        checkLines(actual);
+    }
+
+    /** Test the bookkeeping inside a single line. */
+    private static void testLine(QwirkleSettings settings) {
+        // a vertical line of squares, built downwards and then upwards
+        QwirkleLine line = new QwirkleLine(new QwirklePlacement("bs", 0, 0), settings)
+                .augment(new QwirklePlacement("gs", 0, -1))
+                .augment(new QwirklePlacement("ys", 0, 1));
+        assert line.size() == 3 && line.getScore() == 3;
+        assert line.contains(QwirkleColor.GREEN) && !line.contains(QwirkleColor.RED);
+        assert line.contains(QwirkleShape.square) && !line.contains(QwirkleShape.circle);
+        assert line.contains(QwirkleLocation.of(0, -1)) && !line.contains(QwirkleLocation.of(0, 2));
+        assert line.contains(new QwirklePlacement("gs", 0, -1)) && !line.contains(new QwirklePlacement("gc", 0, -1));
+        assert line.getEnds().equals(Arrays.asList(QwirkleLocation.of(0, -2), QwirkleLocation.of(0, 2)));
+        assert line.equals(new QwirkleLine(new QwirklePlacement("ys", 0, 1), settings)
+                .augment(new QwirklePlacement("bs", 0, 0)).augment(new QwirklePlacement("gs", 0, -1)));
+        assert !line.isLegal(new QwirklePlacement("rs", 1, 0)); // not an end
+        assert !line.isLegal(new QwirklePlacement("gs", 0, 2)); // duplicate color
+        assert !line.isLegal(new QwirklePlacement("rc", 0, 2)); // wrong shape
+        assert line.isLegal(new QwirklePlacement("rs", 0, 2));
+
+        // a single piece can grow in any direction, but not by the same piece
+        QwirkleLine single = new QwirkleLine(new QwirklePlacement("rc", 5, 5), settings);
+        assert single.isLegal(new QwirklePlacement("rs", 4, 5)) && single.isLegal(new QwirklePlacement("bc", 5, 6));
+        assert !single.isLegal(new QwirklePlacement("rc", 5, 4)) && !single.isLegal(new QwirklePlacement("bs", 5, 4));
+
+        // complete, with all the colors
+        QwirkleLine full = line.augment(new QwirklePlacement("rs", 0, 2))
+                .augment(new QwirklePlacement("os", 0, -2)).augment(new QwirklePlacement("ps", 0, 3));
+        assert full.isComplete() && full.getScore() == 12;
+        assert !full.isLegal(new QwirklePlacement("rs", 0, 4));
+
+        // joining across a gap only works if the other line continues along the same axis
+        QwirkleLine below = new QwirkleLine(new QwirklePlacement("rs", 0, -3), settings);
+        QwirkleLine beside = new QwirkleLine(new QwirklePlacement("rs", 1, -2), settings);
+        QwirklePlacement join = new QwirklePlacement("os", 0, -2);
+        assert line.canJoinWith(below, join) && below.canJoinWith(line, join);
+        assert !line.canJoinWith(beside, join);
+        assert !line.canJoinWith(new QwirkleLine(new QwirklePlacement("gs", 0, -3), settings), join);
+    }
+
     /** Test a tricky legality situation. */
     private static void testLegal() {
         List<QwirklePlacement> play;
@@ -229,6 +624,7 @@ public class TestBoard {
         // but can't join if there is a duplicate piece
         QwirkleLine longer = line2.augment(new QwirklePlacement("yf", 4, 0));
         assert !line1.canJoinWith(longer, join);
+        testLine(settings);
 
         // matches two lines individually, but joins them illegally
         board = new QwirkleTestBoard()
@@ -273,6 +669,157 @@ public class TestBoard {
         assert nextBoard.isLegal(play.get(1));
 
 //        System.out.println(board.play(play));
+
+        testOtherColors(settings);
+    }
+
+    /** Colors that aren't in the game -- black and white, with the default settings -- follow the same rules. */
+    private static void testOtherColors(QwirkleSettings settings) {
+        assert settings.getColorIndex(QwirkleColor.BLACK) < 0 && settings.getColorIndex(QwirkleColor.WHITE) < 0;
+        QwirkleBoard board = new QwirkleBoardImpl(settings);
+        List<QwirklePlacement> play = Arrays.asList(new QwirklePlacement("kc", 0, 0), new QwirklePlacement("ks", 1, 0));
+        assert board.isLegal(play.get(0));
+        assert board.isLegal(play);
+        board = board.play(play);
+        assert board.getLastScore() == 2;
+        checkLines(board);
+
+        assert !board.isLegal(new QwirklePlacement("kc", 2, 0)); // already there
+        assert board.isLegal(new QwirklePlacement("kd", 2, 0));
+        assert !board.isLegal(new QwirklePlacement("ws", 2, 0)); // neither the same color nor the same shape
+        assert board.isLegal(new QwirklePlacement("rc", 0, 1));
+        board = board.play(new QwirklePlacement("rc", 0, 1));
+        assert board.isLegal(new QwirklePlacement("wc", 0, -1)); // black, red, white
+        assert !board.isLegal(new QwirklePlacement("kc", 0, -1));
+        assert board.scoreIfLegal(Arrays.asList(new QwirklePlacement("kc", 0, -1))) == -1;
+        try {
+            board.play(new QwirklePlacement("kc", 0, -1));
+            assert false : "Should have thrown IllegalStateException.";
+        } catch(IllegalStateException ignored) {}
+        checkLines(board);
+
+        // placements agree with isLegal, whichever way the hand is matched
+        List<QwirklePiece> hand = Arrays.asList(new QwirklePiece("kd"), new QwirklePiece("wc"),
+                new QwirklePiece("rs"), new QwirklePiece("ws"));
+        for (HandMatching matching : HandMatching.values()) {
+            QwirkleBoard replayed = replay(board, settings.withHandMatching(matching));
+            Map<QwirklePiece, Collection<QwirklePlacement>> placements = replayed.getLegalPlacements(hand);
+            for (QwirklePiece piece : hand) {
+                Set<QwirklePlacement> expected = new HashSet<>();
+                for (int x = -2; x <= 3; ++x)
+                    for (int y = -2; y <= 2; ++y)
+                        if (replayed.isLegal(QwirklePlacement.of(piece, x, y)))
+                            expected.add(QwirklePlacement.of(piece, x, y));
+                assert expected.equals(new HashSet<>(placements.get(piece))) : piece + ": " + placements.get(piece);
+            }
+            assert placements.get(hand.get(0)).contains(new QwirklePlacement("kd", 2, 0));
+            assert placements.get(hand.get(1)).contains(new QwirklePlacement("wc", 0, -1));
+        }
+    }
+
+    /** Make sure that a board's lines -- which are built incrementally
+     *  from the previous board's -- match a scan of the whole board. */
+    private static void checkLines(QwirkleBoard board) {
+        Set<QwirkleLine> scanned = new HashSet<>();
+        scanLines(board, board.getHorizontalWalker(1), scanned);
+        scanLines(board, board.getVerticalWalker(1), scanned);
+        assert scanned.equals(new HashSet<>(board.getLines())) : board;
+
+        // the runs of pieces are the same lines
+        final QwirkleBoard b = board;
+        final Set<QwirkleLine> runs = new HashSet<>();
+        for (final boolean horizontal : new boolean[] { true, false })
+            board.forEachRun(horizontal, new QwirkleGrid.RunVisitor() {
+                @Override
+                public void visit(int fixed, int start, int end, QwirklePlacement[] placements) {
+                    assert b.getPlacement(horizontal ? start - 1 : fixed, horizontal ? fixed : start - 1) == null;
+                    assert b.getPlacement(horizontal ? end + 1 : fixed, horizontal ? fixed : end + 1) == null;
+                    QwirkleLine line = null;
+                    for (int i = start; i <= end; ++i) {
+                        QwirklePlacement placement = placements[i - start];
+                        assert placement == b.getPlacement(horizontal ? i : fixed, horizontal ? fixed : i);
+                        line = (line == null) ? new QwirkleLine(placement, b.getSettings()) : line.augment(placement);
+                    }
+                    runs.add(line);
+                }
+            });
+        assert runs.equals(scanned) : runs + " vs " + scanned;
+
+        // a line can be walked more than once
+        for (QwirkleGrid.LineWalker line : board.getHorizontalWalker(1)) {
+            List<QwirkleLocation> first = new ArrayList<>(), second = new ArrayList<>();
+            for (QwirkleLocation location : line) first.add(location);
+            for (QwirkleLocation location : line) second.add(location);
+            assert first.equals(second) : first + " vs " + second;
+        }
+    }
+
+    private static void scanLines(QwirkleBoard board, QwirkleGrid.GridWalker walker, Set<QwirkleLine> result) {
+        for (QwirkleGrid.LineWalker lineWalker : walker) {
+            QwirkleLine line = null;
+            for (QwirkleLocation location : lineWalker) {
+                QwirklePlacement placement = board.getPlacement(location);
+                if (placement == null && line != null) {
+                    result.add(line);
+                    line = null;
+                }
+                else if (placement != null)
+                    line = (line == null) ? new QwirkleLine(placement, board.getSettings()) : line.augment(placement);
+            }
+        }
+    }
+
+    /** Check that the legal placements for a whole hand are the same as checking every open spot one by one. */
+    private static void checkLegalPlacements(QwirkleBoard board, List<QwirklePiece> hand) {
+        Map<QwirklePiece, Collection<QwirklePlacement>> legal = board.getLegalPlacements(hand);
+        // every way of matching the hand gets the same answer
+        for (HandMatching matching : HandMatching.values())
+            assert legal.equals(replay(board, board.getSettings().withHandMatching(matching))
+                    .getLegalPlacements(hand)) : matching;
+        for (QwirklePiece piece : hand) {
+            Set<QwirklePlacement> expected = new HashSet<>();
+            for (QwirklePlacement placement : board.getPlacements())
+                for (QwirkleLocation location : placement.getLocation().getNeighbors())
+                    if (board.getPlacement(location) == null && board.isLegal(new QwirklePlacement(piece, location)))
+                        expected.add(new QwirklePlacement(piece, location));
+            assert expected.equals(new HashSet<>(legal.get(piece))) : expected + " vs " + legal.get(piece);
+            assert expected.equals(new HashSet<>(board.getLegalPlacements(piece)));
+            // remembered, but for the right tile
+            assert board.getLegalPlacements(piece) == board.getLegalPlacements(piece);
+            QwirklePiece other = new QwirklePiece(piece.getColor(), piece.getShape());
+            assert expected.equals(new HashSet<>(board.getLegalPlacements(other)));
+            for (QwirklePlacement placement : board.getLegalPlacements(other))
+                assert placement.getPiece() == other;
+        }
+    }
+
+    /** Check that pushing pieces from <tt>hand</tt> onto <tt>search</tt> agrees with playing them on its board. */
+    private static void checkSearch(QwirkleSearchBoard search, List<QwirklePiece> hand) {
+        QwirkleBoard board = search.getBoard();
+        List<QwirklePlacement> play = new ArrayList<>(search.getPlay());
+        if (!play.isEmpty())
+            assert search.getScore() == board.play(play).getLastScore() && search.getScore() == board.score(play);
+        for (int i = 0; i < hand.size(); ++i) {
+            QwirklePiece piece = hand.get(i);
+            // legal on the board that results, and in line with the rest of the play
+            Set<QwirklePlacement> expected = new HashSet<>();
+            for (QwirklePlacement candidate : board.play(play).getLegalPlacements(piece)) {
+                play.add(candidate);
+                if (board.isLegal(play))
+                    expected.add(candidate);
+                play.remove(candidate);
+            }
+            Collection<QwirklePlacement> actual = search.getLegalPlacements(piece);
+            assert expected.equals(new HashSet<>(actual)) : expected + " vs " + actual + " on " + search;
+            List<QwirklePiece> rest = new ArrayList<>(hand);
+            rest.remove(i);
+            for (QwirklePlacement placement : actual) {
+                int depth = search.getDepth();
+                search.push(placement);
+                checkSearch(search, rest);
+                assert search.pop() == placement && search.getDepth() == depth;
+            }
+        }
     }
 
     /** Test playing individual tiles.
@@ -307,6 +854,11 @@ public class TestBoard {
                 List<QwirklePlacement> movesList = new ArrayList<>(moves);
                 board = board.play(movesList.get(r.nextInt(movesList.size())));
                 assert pieces.size() + board.size() == initialSize;
+                checkLines(board);
+                if (board.size() % 25 == 0) {
+                    checkSearch(new QwirkleSearchBoard(board), pieces.subList(0, Math.min(3, pieces.size())));
+                    checkLegalPlacements(board, pieces.subList(0, Math.min(6, pieces.size())));
+                }
 
                 if (verbose) {
                     System.out.print(board);
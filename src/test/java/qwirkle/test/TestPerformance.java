@@ -1,19 +1,21 @@
 package qwirkle.test;
 
 import com.google.common.eventbus.EventBus;
-import qwirkle.game.base.QwirkleAI;
-import qwirkle.game.base.QwirklePlayer;
-import qwirkle.game.base.QwirkleSettings;
-import qwirkle.game.base.TimeLimitAI;
+import qwirkle.game.base.*;
+import qwirkle.game.base.impl.QwirkleBoardImpl;
 import qwirkle.game.control.GameController;
 import qwirkle.game.control.impl.SingleThreadedStrict;
+import qwirkle.game.control.players.LinePlayGenerator;
 import qwirkle.game.control.players.MaxAI;
+import qwirkle.game.control.players.PlayConsumer;
+import qwirkle.game.control.players.PlayerKit;
 import qwirkle.game.control.players.RainbowAI;
+import qwirkle.game.control.players.RankedPlays;
+import qwirkle.test.support.SeededGame;
 import qwirkle.util.Stopwatch;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.prefs.Preferences;
 
 /** Performance tests. */
@@ -26,6 +28,10 @@ public class TestPerformance {
         TestMain.checkAssert();
 
         testTimeLimit();
+        testParallel();
+        testLinePlays();
+        testRanking();
+        testBranchAndBound();
 
         Stopwatch w = new Stopwatch(true);
         List<Long> times = timeMaxPlayer(0, w);
@@ -34,11 +40,27 @@ public class TestPerformance {
     }
 
     private static final long MAX_MILLIS = 50;
-    /** Test that giving a MaxAI a time limit works. */
+    /** Test that giving an AI a time limit works, through a whole game and on a single big turn. */
     private static void testTimeLimit() {
-        TimeLimitAI a = new MaxAI("a"), b = new RainbowAI("b");
-        QwirkleSettings qs = new QwirkleSettings(a, b);
-        GameController mgr = new GameController(new EventBus(), qs, new SingleThreadedStrict());
+        testGameTimeLimit();
+        System.out.print("; ");
+        testTurnTimeLimit();
+        System.out.print("; limit " + MAX_MILLIS + " -- ");
+    }
+
+    // a game's turns are much quicker than the big turn's, so they get a tighter limit
+    private static final long GAME_MAX_MILLIS = 10;
+    /** Test that giving a MaxAI and a RainbowAI a time limit keeps every turn of a game within it.
+     *  With the default settings, turns are too quick for a limit to matter, so use eight shapes and
+     *  colors -- bigger hands, more plays -- and a RainbowAI that weighs all the plays within 20 points. */
+    private static void testGameTimeLimit() {
+        MaxAI a = new MaxAI("a");
+        RainbowAI b = new RainbowAI("b", QwirkleColor.EIGHT_COLORS);
+        b.setBias(20);
+        QwirkleSettings settings = new QwirkleSettings(QwirkleSettings.DEFAULT_DECK_COUNT,
+                QwirkleShape.EIGHT_SHAPES, QwirkleColor.EIGHT_COLORS,
+                QwirklePlayer.wrap(Arrays.<QwirkleAI>asList(a, b)));
+        GameController mgr = new GameController(new EventBus(), settings, new SingleThreadedStrict());
         Stopwatch w = new Stopwatch(true);
 
         // run once without a time limit
@@ -46,19 +68,19 @@ public class TestPerformance {
         int exceed = 0;
         int i = 0;
         Stopwatch untimed = new Stopwatch();
-        while(!mgr.isFinished()) {
+        while (!mgr.isFinished()) {
             String label = "" + ++i;
             mgr.stepAI();
             untimed.mark(label);
-            if (untimed.getElapsed(label) > MAX_MILLIS)
+            if (untimed.getElapsed(label) > GAME_MAX_MILLIS)
                 exceed++;
         }
         String untimedLabel = "untimed (" + mgr.getBoard().getTurnCount() + " turns)";
         w.mark(untimedLabel);
-        assert exceed > 5 : "game too fast (" + exceed + "); reduce MAX_MILLIS (" + MAX_MILLIS + ")";
+        assert exceed > 5 : "game too fast; reduce GAME_MAX_MILLIS (" + GAME_MAX_MILLIS + ")";
 
         // run with a time limit
-        a.setMaxMillis(MAX_MILLIS); b.setMaxMillis(MAX_MILLIS);
+        a.setMaxMillis(GAME_MAX_MILLIS); b.setMaxMillis(GAME_MAX_MILLIS);
         mgr.start();
         i = 0;
         Stopwatch timed = new Stopwatch();
@@ -66,17 +88,222 @@ public class TestPerformance {
             mgr.stepAI();
             String label = "" + ++i;
             timed.mark(label);
-            assert timed.getElapsed(label) <= MAX_MILLIS * 5
-                    : "Exceeded " + MAX_MILLIS + " ms (" + timed.getElapsed(label) + ")";
+            assert timed.getElapsed(label) <= GAME_MAX_MILLIS * 5
+                    : "Exceeded " + GAME_MAX_MILLIS + " ms (" + timed.getElapsed(label) + ")";
         }
         long avgTime = timed.getElapsed() / mgr.getBoard().getTurnCount();
-        assert avgTime <= MAX_MILLIS : "Average time for a turn too long (" + avgTime + ")";
-        String timedLabel = MAX_MILLIS + " ms (" + mgr.getBoard().getTurnCount() + " turns)";
-        w.mark(timedLabel);
+        assert avgTime <= GAME_MAX_MILLIS : "Average time for a turn too long (" + avgTime + ")";
+        // no comparing the two games' lengths -- they're dealt differently, and one may just be quicker
+        w.mark(GAME_MAX_MILLIS + " ms (" + mgr.getBoard().getTurnCount() + " turns, average " + avgTime + ")");
+    }
+
+    /** Test the time limit on a single big turn: a hand of one color, with all the shapes, which can
+     *  be played thousands of ways -- with seven shapes, tens of thousands, since six are no longer
+     *  enough to take a while. */
+    private static void testTurnTimeLimit() {
+        QwirkleSettings settings = new QwirkleSettings(QwirkleSettings.DEFAULT_DECK_COUNT,
+                QwirkleShape.EIGHT_SHAPES.subList(0, 7), QwirkleColor.DEFAULT_COLORS,
+                Collections.<QwirklePlayer>emptyList());
+        QwirkleBoard board = new QwirkleBoardImpl(settings);
+        List<QwirklePiece> hand = new ArrayList<>();
+        for (QwirkleShape shape : settings.getShapes())
+            hand.add(new QwirklePiece(QwirkleColor.BLUE, shape));
+        Stopwatch w = new Stopwatch(true);
+
+        for (TimeLimitAI ai : Arrays.asList(new MaxAI("a"), new RainbowAI("b", settings))) {
+            // run without a time limit, the second time after warming up
+            ai.play(board, hand);
+            ai.play(board, hand);
+            String untimedLabel = ai.getName() + " untimed";
+            w.mark(untimedLabel);
+            assert w.getElapsed(untimedLabel) > MAX_MILLIS * 2
+                    : "turn too fast (" + w.getElapsed(untimedLabel) + "); reduce MAX_MILLIS (" + MAX_MILLIS + ")";
+
+            // run with a time limit
+            ai.setMaxMillis(MAX_MILLIS);
+            ai.play(board, hand);
+            String timedLabel = ai.getName() + " " + MAX_MILLIS + " ms";
+            w.mark(timedLabel);
+            assert w.getElapsed(timedLabel) <= MAX_MILLIS * 5
+                    : "Exceeded " + MAX_MILLIS + " ms (" + w.getElapsed(timedLabel) + ")";
+            assert w.getElapsed(untimedLabel) > w.getElapsed(timedLabel);
+        }
+    }
+
+    /** Test that searching for plays in parallel finds the same ones, on the same big turn as
+     *  {@link #testTimeLimit}, and then on a board with some pieces on it. */
+    private static void testParallel() {
+        QwirkleSettings settings = new QwirkleSettings();
+        QwirkleBoard board = new QwirkleBoardImpl(settings);
+        List<QwirklePiece> hand = new ArrayList<>();
+        for (QwirkleShape shape : settings.getShapes())
+            hand.add(new QwirklePiece(QwirkleColor.BLUE, shape));
+        Stopwatch w = new Stopwatch();
+        for (boolean shorties : new boolean[] { false, true }) {
+            // the search marks its own stopwatch, so give it another one
+            Set<Set<QwirklePlacement>> serial
+                    = PlayerKit.findAllPossiblePlays(board, hand, shorties, new Stopwatch(), -1, false);
+            w.mark("serial");
+            Set<Set<QwirklePlacement>> parallel
+                    = PlayerKit.findAllPossiblePlays(board, hand, shorties, new Stopwatch(), -1, true);
+            w.mark("parallel");
+            assert serial.equals(parallel) : serial.size() + " vs " + parallel.size();
+            // and searching piece by piece, for games too unusual for lines
+            assert serial.equals(PlayerKit.searchAllPossiblePlays(board, hand, shorties, new Stopwatch(), -1, true));
+        }
+        System.out.print("serial " + w.getElapsed("serial") + ", parallel " + w.getElapsed("parallel")
+                + " on " + Runtime.getRuntime().availableProcessors() + " cores -- ");
+
+        // a few turns in, with a mixed hand
+        SeededGame game = new SeededGame(settings, 7);
+        MaxAI max = new MaxAI("serial"), parallel = new MaxAI("parallel");
+        parallel.setParallel(true);
+        for (int turn = 0; turn < 10 && game.hasHand(); ++turn) {
+            board = game.getBoard();
+            hand = game.getHand();
+            Set<Set<QwirklePlacement>> plays = PlayerKit.findAllPossiblePlays(board, hand, true, new Stopwatch(), -1, false);
+            assert plays.equals(PlayerKit.findAllPossiblePlays(board, hand, true, new Stopwatch(), -1, true));
+            assert plays.equals(PlayerKit.searchAllPossiblePlays(board, hand, true, new Stopwatch(), -1, true));
+            Collection<QwirklePlacement> play = max.play(board, hand);
+            assert play.equals(parallel.play(board, hand));
+            game.play(play);
+        }
+    }
+
+    /** Test that finding plays a line at a time finds the same ones as searching piece by piece,
+     *  through a few games, including one with fewer shapes than colors. */
+    private static void testLinePlays() {
+        long linesNanos = 0, searchNanos = 0;
+        for (QwirkleSettings settings : Arrays.asList(new QwirkleSettings(),
+                new QwirkleSettings(1, QwirkleShape.FOUR_SHAPES, QwirkleColor.FIVE_COLORS,
+                        Collections.<QwirklePlayer>emptyList())))
+        {
+            SeededGame game = new SeededGame(settings, 11);
+            MaxAI max = new MaxAI("max");
+            for (int turn = 0; turn < 40 && game.hasHand(); ++turn) {
+                QwirkleBoard board = game.getBoard();
+                List<QwirklePiece> hand = game.getHand();
+                for (boolean shorties : new boolean[] { false, true }) {
+                    long start = System.nanoTime();
+                    Set<Set<QwirklePlacement>> lines
+                            = LinePlayGenerator.findAllPossiblePlays(board, hand, shorties, new Stopwatch(), -1);
+                    long middle = System.nanoTime();
+                    Set<Set<QwirklePlacement>> search
+                            = PlayerKit.searchAllPossiblePlays(board, hand, shorties, new Stopwatch(), -1, false);
+                    linesNanos += middle - start;
+                    searchNanos += System.nanoTime() - middle;
+                    assert lines.equals(search) : "turn " + turn + ": " + lines.size() + " vs " + search.size();
+                }
+                game.play(max.play(board, hand));
+            }
+        }
+
+        // too few shapes or colors to use lines, so search
+        QwirkleSettings mono = new QwirkleSettings(1, QwirkleShape.DEFAULT_SHAPES,
+                Collections.singletonList(QwirkleColor.BLUE), Collections.<QwirklePlayer>emptyList());
+        QwirkleBoard board = new QwirkleBoardImpl(mono);
+        List<QwirklePiece> hand = mono.generate().subList(0, 3);
+        assert LinePlayGenerator.findAllPossiblePlays(board, hand, false, new Stopwatch(), -1) == null;
+        Set<Set<QwirklePlacement>> plays = PlayerKit.findAllPossiblePlays(board, hand, false, new Stopwatch(), -1);
+        assert !plays.isEmpty();
+        assert plays.equals(PlayerKit.searchAllPossiblePlays(board, hand, false, new Stopwatch(), -1, false));
+
+        System.out.print("lines " + linesNanos / 1000000 + ", search " + searchNanos / 1000000 + " -- ");
+    }
 
-        assert w.getElapsed(untimedLabel) > w.getElapsed(timedLabel);
+    /** Test that keeping just the best plays as they're found keeps the same ones, in the same
+     *  order, as ranking them all -- and that the scores they come with are right. */
+    private static void testRanking() {
+        SeededGame game = new SeededGame(new QwirkleSettings(), 13);
+        MaxAI max = new MaxAI("max");
+        for (int turn = 0; turn < 30 && game.hasHand(); ++turn) {
+            final QwirkleBoard board = game.getBoard();
+            List<QwirklePiece> hand = game.getHand();
+            for (boolean shorties : new boolean[] { false, true }) {
+                List<Integer> scores = new ArrayList<>();
+                List<Set<QwirklePlacement>> all = new ArrayList<>();
+                for (Map.Entry<Integer, Set<QwirklePlacement>> entry
+                        : PlayerKit.rankAllMoves(board, hand, new Stopwatch(), -1, true, shorties).entries())
+                {
+                    scores.add(entry.getKey());
+                    all.add(entry.getValue());
+                }
+                RankedPlays best = new RankedPlays.Best(), top = new RankedPlays.Top(5),
+                        withinBias = new RankedPlays.WithinBias(2);
+                for (RankedPlays ranked : Arrays.asList(best, top, withinBias))
+                    PlayerKit.rankAllMoves(board, hand, new Stopwatch(), -1, true, shorties, false, ranked);
+                assert best.getBest().equals(all.get(0)) && best.getBestScore() == scores.get(0);
+                assert top.getPlays().equals(all.subList(0, Math.min(5, all.size())));
+                int n = 0;
+                while (n < all.size() && scores.get(n) >= scores.get(0) - 2)
+                    ++n;
+                assert withinBias.getPlays().equals(all.subList(0, n)) : withinBias.getPlays().size() + " vs " + n;
 
-        System.out.print("; average " + avgTime + "/ limit " + MAX_MILLIS + " -- ");
+                PlayerKit.rankAllMoves(board, hand, new Stopwatch(), -1, false, shorties, false, new PlayConsumer() {
+                    @Override
+                    public void accept(Set<QwirklePlacement> play, int score) {
+                        assert score == board.score(play) : play + ": " + score + " vs " + board.score(play);
+                    }
+                });
+            }
+            game.play(max.play(board, hand));
+        }
+    }
+
+    /** Test that looking for the best play tries the most promising first, and skips what can't
+     *  beat it: on the big turn from {@link #testTimeLimit}, even a tiny time limit is enough to
+     *  find a play as good as the best, and through a game, most plays never get made -- in parallel too. */
+    private static void testBranchAndBound() {
+        QwirkleSettings settings = new QwirkleSettings(QwirkleSettings.DEFAULT_DECK_COUNT,
+                QwirkleShape.EIGHT_SHAPES.subList(0, 7), QwirkleColor.DEFAULT_COLORS,
+                Collections.<QwirklePlayer>emptyList());
+        QwirkleBoard board = new QwirkleBoardImpl(settings);
+        List<QwirklePiece> hand = new ArrayList<>();
+        for (QwirkleShape shape : settings.getShapes())
+            hand.add(new QwirklePiece(QwirkleColor.BLUE, shape));
+        MaxAI max = new MaxAI("max");
+        int best = board.score(max.play(board, hand));
+        assert best == 14 : best; // a qwirkle, with a bonus of 7
+        max.setMaxMillis(5);
+        assert board.score(max.play(board, hand)) == best;
+        max.setParallel(true);
+        assert board.score(max.play(board, hand)) == best;
+        max.setParallel(false);
+
+        // and a game's worth of turns, where there's usually a clear winner -- fewer plays get made
+        SeededGame game = new SeededGame(new QwirkleSettings(), 17);
+        int made = 0, madeInParallel = 0, all = 0;
+        for (int turn = 0; turn < 20; ++turn) {
+            board = game.getBoard();
+            hand = game.getHand();
+            final int[] n = { 0, 0 }; // in this thread, and in parallel
+            RankedPlays counted = new RankedPlays.Best() {
+                @Override
+                public void accept(Set<QwirklePlacement> play, int score) {
+                    ++n[0];
+                    super.accept(play, score);
+                }
+            };
+            PlayerKit.rankAllMoves(board, hand, new Stopwatch(), -1, true, false, false, counted);
+            RankedPlays countedInParallel = new RankedPlays.Best() {
+                @Override
+                public void accept(Set<QwirklePlacement> play, int score) {
+                    ++n[1];
+                    super.accept(play, score);
+                }
+            };
+            PlayerKit.rankAllMoves(board, hand, new Stopwatch(), -1, true, false, true, countedInParallel);
+            made += n[0];
+            madeInParallel += n[1];
+            all += PlayerKit.findAllPossiblePlays(board, hand, false, new Stopwatch(), -1).size() + 1;
+            Set<QwirklePlacement> play = counted.getBest();
+            assert board.score(play) == board.score(max.play(board, hand));
+            assert play.equals(countedInParallel.getBest());
+            game.play(play);
+        }
+        assert made < all : made + " vs " + all;
+        assert madeInParallel < all : madeInParallel + " in parallel vs " + all;
+        System.out.print("bounded " + made + " (" + madeInParallel + " in parallel) of " + all + " plays -- ");
     }
 
     private static ArrayList<Long> timeMaxPlayer(int verbosity, Stopwatch w) {
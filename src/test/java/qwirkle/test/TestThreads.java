@@ -9,14 +9,14 @@ import qwirkle.game.control.impl.NewThreadEachTime;
 import qwirkle.game.control.players.MaxAI;
 import qwirkle.game.control.players.RainbowAI;
 import qwirkle.game.control.players.StupidAI;
+import qwirkle.game.control.players.ThreadedMaxAI;
 import qwirkle.game.event.GameOver;
 import qwirkle.game.event.TurnCompleted;
+import qwirkle.test.support.SeededGame;
 import qwirkle.ui.control.QwirkleUIController;
 import qwirkle.util.Stopwatch;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -43,12 +43,44 @@ public class TestThreads {
             w.mark("clock slow");
             testGamePace(nGames, 5, 5, 0.45, printLevel); // slow both
             w.mark("both slow");
+            testThreadedMax();
+            w.mark("threaded max");
             System.out.print(" -- Completed");
         } finally {
             System.out.println(" thread test: " + w.getTotal());
         }
     }
 
+    /** Test that ThreadedMaxAI finds the same plays as MaxAI, without piling up threads. */
+    private static void testThreadedMax() {
+        QwirkleSettings settings = new QwirkleSettings();
+        MaxAI max = new MaxAI("max");
+        ThreadedMaxAI threaded = new ThreadedMaxAI("threaded", 4);
+        int before = Thread.activeCount();
+        for (int seed = 0; seed < 3; ++seed) {
+            SeededGame game = new SeededGame(settings, seed);
+            for (int turn = 0; turn < 12 && game.hasHand(); ++turn) {
+                QwirkleBoard board = game.getBoard();
+                List<QwirklePiece> hand = game.getHand();
+                Collection<QwirklePlacement> expected = max.play(board, hand), actual = threaded.play(board, hand);
+                assert actual.equals(expected) : actual + " vs " + expected;
+                game.play(actual);
+            }
+        }
+        assert Thread.activeCount() <= before + threaded.getThreadCount()
+                : Thread.activeCount() + " threads, up from " + before;
+
+        // out of time? still plays something
+        QwirkleBoard board = settings.createBoard();
+        List<QwirklePiece> hand = new ArrayList<>();
+        for (QwirkleShape shape : settings.getShapes())
+            hand.add(new QwirklePiece(QwirkleColor.BLUE, shape));
+        threaded.setMaxMillis(20);
+        long start = System.currentTimeMillis();
+        Collection<QwirklePlacement> play = threaded.play(board, hand);
+        assert System.currentTimeMillis() - start < 1000 && board.isLegal(play);
+    }
+
     private static void testFixedTime(long duration, int printLevel) throws InterruptedException {
         final boolean verbose = printLevel >= 2, discrete = printLevel >= 1;
         Collection<QwirkleColor> colors = QwirkleColor.DEFAULT_COLORS;
@@ -0,0 +1,45 @@
+package qwirkle.test.support;
+
+import qwirkle.game.base.QwirkleBoard;
+import qwirkle.game.base.QwirklePiece;
+import qwirkle.game.base.QwirklePlacement;
+import qwirkle.game.base.QwirkleSettings;
+
+import java.util.*;
+
+/** A game with a deck shuffled by a fixed seed, for tests that look at the board and hand turn by turn.
+ *  No players and no controller: the hand is just the front of the deck, and the test decides what to
+ *  play. Playing nothing moves the hand to the back of the deck, so that the next turn has a new one. */
+public class SeededGame {
+    private final List<QwirklePiece> deck;
+    private final int handSize;
+    private QwirkleBoard board;
+
+    public SeededGame(QwirkleSettings settings, long seed) {
+        this.deck = settings.generate();
+        Collections.shuffle(deck, new Random(seed));
+        this.handSize = settings.getHandSize();
+        this.board = settings.createBoard();
+    }
+
+    public QwirkleBoard getBoard() { return board; }
+
+    /** Are there enough pieces left for a full hand? */
+    public boolean hasHand() { return deck.size() >= handSize; }
+
+    /** This turn's hand -- a copy, so the test can do what it likes with it. */
+    public List<QwirklePiece> getHand() {
+        return new ArrayList<>(deck.subList(0, handSize));
+    }
+
+    /** Play <tt>play</tt>, from this turn's hand, and move on to the next turn. */
+    public void play(Collection<QwirklePlacement> play) {
+        if (play.isEmpty())
+            Collections.rotate(deck, handSize);
+        else {
+            board = board.play(play);
+            for (QwirklePlacement placement : play)
+                deck.remove(placement.getPiece());
+        }
+    }
+}